@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Jar file transformation benchmark. Transformer of the default mapping is created once per trial,
+ * see {@link StartupBenchmark} for transformer creation cost.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JarBenchmark {
+
+    @Param({"5000"})
+    private int classes;
+
+    @Param({"1", "4"})
+    private int threads;
+
+    private File directory;
+    private File inJarFile;
+    private File outJarFile;
+    private ArchiveTransformer archiveTransformer;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("javax2jakarta").toFile();
+        inJarFile = new File(directory, "in.jar");
+        outJarFile = new File(directory, "out.jar");
+        SyntheticData.newJar(inJarFile, classes);
+        archiveTransformer = new ArchiveTransformer(Main.getTransformer(false, false, null), threads, false, 0);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteOutput() {
+        outJarFile.delete();
+    }
+
+    @TearDown
+    public void tearDown() {
+        inJarFile.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public void transformJarFile() throws IOException {
+        archiveTransformer.transform(inJarFile, outJarFile);
+    }
+
+}
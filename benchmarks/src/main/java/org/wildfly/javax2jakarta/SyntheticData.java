@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Generator of synthetic class files, jar files and mapping configurations used by benchmarks.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class SyntheticData {
+
+    /**
+     * Shape of generated class constant pool.
+     */
+    enum ClassShape {
+        /**
+         * 200 <code>CONSTANT_Utf8_info</code> structures, none of them matching.
+         */
+        NO_MATCHES(200, 0, 1),
+        /**
+         * 200 <code>CONSTANT_Utf8_info</code> structures, 3 of them matching.
+         */
+        FEW_MATCHES(200, 3, 1),
+        /**
+         * 200 <code>CONSTANT_Utf8_info</code> structures, all of them matching twice.
+         */
+        MANY_MATCHES(200, 200, 2),
+        /**
+         * 30000 <code>CONSTANT_Utf8_info</code> structures, 300 of them matching.
+         */
+        LARGE_POOL(30000, 300, 1);
+
+        private final int utf8Count;
+        private final int matchingCount;
+        private final int matchesPerItem;
+
+        ClassShape(final int utf8Count, final int matchingCount, final int matchesPerItem) {
+            this.utf8Count = utf8Count;
+            this.matchingCount = matchingCount;
+            this.matchesPerItem = matchesPerItem;
+        }
+    }
+
+    private static final String[] DEFAULT_PACKAGES = {
+        "annotation/", "batch/api/", "batch/operations/", "batch/runtime/", "decorator/", "ejb/", "el/",
+        "enterprise/concurrent/", "enterprise/context/", "enterprise/deploy/model/", "enterprise/deploy/shared/",
+        "enterprise/deploy/spi/", "enterprise/event/", "enterprise/inject/", "enterprise/util/", "faces/", "inject/",
+        "interceptor/", "jms/", "json/", "mail/", "management/j2ee/", "persistence/", "resource/",
+        "security/auth/message/", "security/enterprise/", "security/jacc/", "servlet/", "transaction/I",
+        "transaction/N", "transaction/R", "transaction/S", "transaction/T", "transaction/U", "validation/",
+        "websocket/", "ws/rs/", "xml/registry/", "xml/rpc/",
+    };
+
+    private SyntheticData() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Creates transformer with given count of mappings. The first mapping is always <code>javax/servlet/</code>,
+     * up to 39 mappings are taken from the default configuration, remaining mappings are synthetic.
+     *
+     * @param mappingsCount count of mappings
+     * @return transformer
+     */
+    static Transformer newTransformer(final int mappingsCount) {
+        final Transformer.Builder builder = Transformer.newInstance();
+        builder.addMapping("javax/servlet/", "jakarta/servlet/");
+        for (int i = 0, added = 1; added < mappingsCount; i++) {
+            if (i < DEFAULT_PACKAGES.length) {
+                if (DEFAULT_PACKAGES[i].equals("servlet/")) continue;
+                builder.addMapping("javax/" + DEFAULT_PACKAGES[i], "jakarta/" + DEFAULT_PACKAGES[i]);
+            } else {
+                builder.addMapping("javax/synthetic" + i + "/", "jakarta/synthetic" + i + "/");
+            }
+            added++;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Generates valid class file with given constant pool shape.
+     *
+     * @param className internal class name
+     * @param shape constant pool shape
+     * @return class byte code
+     */
+    static byte[] newClass(final String className, final ClassShape shape) {
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(baos);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(5 + shape.utf8Count);
+            // #1 and #2 this class, #3 and #4 super class
+            out.writeByte(ClassFileUtils.UTF8);
+            out.writeUTF(className);
+            out.writeByte(ClassFileUtils.CLASS);
+            out.writeShort(1);
+            out.writeByte(ClassFileUtils.UTF8);
+            out.writeUTF("java/lang/Object");
+            out.writeByte(ClassFileUtils.CLASS);
+            out.writeShort(3);
+            // matching items are spread evenly among the other items
+            final int step = shape.matchingCount == 0 ? Integer.MAX_VALUE : shape.utf8Count / shape.matchingCount;
+            for (int i = 0; i < shape.utf8Count; i++) {
+                out.writeByte(ClassFileUtils.UTF8);
+                if (i % step == 0 && i / step < shape.matchingCount) {
+                    out.writeUTF(shape.matchesPerItem == 1
+                            ? "Ljavax/servlet/http/HttpServletRequest" + i + ";"
+                            : "(Ljavax/servlet/http/HttpServletRequest;Ljavax/servlet/http/HttpServletResponse" + i + ";)V");
+                } else {
+                    out.writeUTF("(Ljava/lang/String;Ljava/util/List;)Lorg/example/generated/Value" + i + ";");
+                }
+            }
+            out.writeShort(0x21); // public super
+            out.writeShort(2);
+            out.writeShort(4);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(0); // methods
+            out.writeShort(0); // attributes
+            out.flush();
+            return baos.toByteArray();
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Generates jar file. Every class shape is used for the same count of classes except {@link ClassShape#LARGE_POOL}
+     * which is used for single class only. Every class is accompanied with a resource file.
+     *
+     * @param jarFile jar file to create
+     * @param classesCount count of classes
+     * @throws IOException if some I/O error occurs
+     */
+    static void newJar(final File jarFile, final int classesCount) throws IOException {
+        final ClassShape[] shapes = {ClassShape.NO_MATCHES, ClassShape.FEW_MATCHES, ClassShape.MANY_MATCHES};
+        final byte[] resource = new byte[1024];
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarFile))) {
+            for (int i = 0; i < classesCount; i++) {
+                final String className = "org/example/generated/Class" + i;
+                final ClassShape shape = i == 0 ? ClassShape.LARGE_POOL : shapes[i % shapes.length];
+                jar.putNextEntry(new ZipEntry(className + ".class"));
+                jar.write(newClass(className, shape));
+                jar.closeEntry();
+                jar.putNextEntry(new ZipEntry(className + ".txt"));
+                resource[i % resource.length]++;
+                jar.write(resource);
+                jar.closeEntry();
+            }
+        }
+    }
+
+}
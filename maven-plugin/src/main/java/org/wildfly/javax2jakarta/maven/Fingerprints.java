@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta.maven;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fingerprints of transformed inputs persisted between builds. Input is up to date if its size and modification time
+ * didn't change, or if its content hash didn't change, and its transformed output still exists.
+ * Fingerprints are valid only for the transformer configuration they were recorded with.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class Fingerprints {
+
+    private static final String HEADER = "javax2jakarta-fingerprints-1";
+    private static final String SEPARATOR = "\t";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final String configuration;
+    private final Map<File, Fingerprint> fingerprints = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param configuration transformer configuration the fingerprints are recorded with
+     */
+    Fingerprints(final String configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Loads fingerprints recorded by previous build.
+     *
+     * @param file fingerprints file
+     * @return recorded fingerprints, empty if there are no readable fingerprints
+     * @throws IOException if fingerprints file couldn't be read
+     */
+    static Fingerprints load(final File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            final String header = reader.readLine();
+            final String configuration = reader.readLine();
+            if (!HEADER.equals(header) || configuration == null) return new Fingerprints(null);
+            final Fingerprints retVal = new Fingerprints(configuration);
+            String line;
+            String[] fields;
+            while ((line = reader.readLine()) != null) {
+                fields = line.split(SEPARATOR, 5);
+                if (fields.length != 5) return new Fingerprints(null);
+                try {
+                    retVal.put(new File(fields[3]), new Fingerprint(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2], new File(fields[4])));
+                } catch (final NumberFormatException e) {
+                    return new Fingerprints(null);
+                }
+            }
+            return retVal;
+        } catch (final NoSuchFileException e) {
+            return new Fingerprints(null);
+        }
+    }
+
+    /**
+     * Writes fingerprints atomically.
+     *
+     * @param file fingerprints file
+     * @throws IOException if fingerprints file couldn't be written
+     */
+    void store(final File file) throws IOException {
+        final Path path = file.toPath();
+        Files.createDirectories(path.getParent());
+        final Path tempFile = Files.createTempFile(path.getParent(), file.getName(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write(configuration);
+            writer.newLine();
+            for (Map.Entry<File, Fingerprint> entry : fingerprints.entrySet()) {
+                final Fingerprint fingerprint = entry.getValue();
+                writer.write(fingerprint.size + SEPARATOR + fingerprint.lastModified + SEPARATOR + fingerprint.hash + SEPARATOR
+                        + entry.getKey().getPath() + SEPARATOR + fingerprint.output.getPath());
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(tempFile, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, path, REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if fingerprints were recorded with given transformer configuration.
+     *
+     * @param configuration transformer configuration
+     * @return <code>true</code> if recorded outputs are reusable, <code>false</code> otherwise
+     */
+    boolean isCompatible(final String configuration) {
+        return configuration.equals(this.configuration);
+    }
+
+    Fingerprint get(final File input) {
+        return fingerprints.get(input);
+    }
+
+    void put(final File input, final Fingerprint fingerprint) {
+        fingerprints.put(input, fingerprint);
+    }
+
+    Collection<Fingerprint> values() {
+        return fingerprints.values();
+    }
+
+    /**
+     * Returns SHA-256 digest of file content as hex string.
+     *
+     * @param file file to digest
+     * @return content hash
+     * @throws IOException if file couldn't be read
+     */
+    static String hash(final File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            final long fileSize = channel.size();
+            for (long position = 0; position < fileSize; position += BUFFER_SIZE) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(BUFFER_SIZE, fileSize - position)));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(final byte[] data) {
+        final char[] retVal = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            retVal[2 * i] = HEX_DIGITS[(data[i] >>> 4) & 0xF];
+            retVal[2 * i + 1] = HEX_DIGITS[data[i] & 0xF];
+        }
+        return new String(retVal);
+    }
+
+    /**
+     * Fingerprint of single input.
+     */
+    static final class Fingerprint {
+        final long size;
+        final long lastModified;
+        final String hash;
+        final File output;
+
+        Fingerprint(final long size, final long lastModified, final String hash, final File output) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.output = output;
+        }
+
+        /**
+         * Creates fingerprint of current input content.
+         *
+         * @param input input file
+         * @param output transformed output file
+         * @return input fingerprint
+         * @throws IOException if input couldn't be read
+         */
+        static Fingerprint of(final File input, final File output) throws IOException {
+            final long size = input.length();
+            final long lastModified = input.lastModified();
+            return new Fingerprint(size, lastModified, hash(input), output);
+        }
+
+        /**
+         * Returns <code>true</code> if input size and modification time didn't change since the fingerprint was taken.
+         *
+         * @param input input file
+         * @return <code>true</code> if input is unchanged without reading its content, <code>false</code> otherwise
+         */
+        boolean isUnchanged(final File input) {
+            return input.length() == size && input.lastModified() == lastModified;
+        }
+    }
+
+}
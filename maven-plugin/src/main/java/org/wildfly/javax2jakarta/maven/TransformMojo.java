@@ -0,0 +1,292 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.wildfly.javax2jakarta.FileTransformer;
+
+/**
+ * Transforms project classes and selected dependencies in-process with single shared transformer.
+ * Only inputs changed since the previous build are transformed, outputs of removed inputs are deleted.
+ * Inputs are transformed in parallel, largest first.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+@Mojo(name = "transform", defaultPhase = LifecyclePhase.PROCESS_CLASSES, requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
+public final class TransformMojo extends AbstractMojo {
+
+    private static final char SEP = '/';
+    private static final String WILDCARD = "*";
+    private static final String INCREMENTAL_ARCHIVES = " incremental-archives";
+    private static final String GROUP_ID_SEPARATOR = "-";
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    /**
+     * Directory of project classes and resources to transform.
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File classesDirectory;
+
+    /**
+     * Directory to write transformed project classes and resources to.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/javax2jakarta/classes", required = true)
+    private File outputDirectory;
+
+    /**
+     * Whether project classes and resources should be transformed.
+     */
+    @Parameter(property = "javax2jakarta.transformClasses", defaultValue = "true")
+    private boolean transformClasses;
+
+    /**
+     * Dependencies to transform given as <code>groupId:artifactId</code>, both parts can be <code>*</code> or end with <code>*</code>.
+     */
+    @Parameter
+    private List<String> dependencies;
+
+    /**
+     * Directory to write transformed dependencies to. Their file names are prefixed with their group id.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/javax2jakarta/lib", required = true)
+    private File dependenciesDirectory;
+
+    /**
+     * File holding fingerprints of transformed inputs between builds.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/javax2jakarta/fingerprints", required = true)
+    private File fingerprintsFile;
+
+    /**
+     * Precompiled transformer snapshot to use instead of the default mapping.
+     */
+    @Parameter(property = "javax2jakarta.snapshot")
+    private File snapshot;
+
+    /**
+     * Count of threads transforming inputs and archive entries, defaults to count of available processors.
+     */
+    @Parameter(property = "javax2jakarta.threads", defaultValue = "0")
+    private int threads;
+
+    /**
+     * Whether unchanged archive entries should be copied without recompression, preserving their timestamps.
+     */
+    @Parameter(property = "javax2jakarta.incrementalArchives", defaultValue = "false")
+    private boolean incrementalArchives;
+
+    /**
+     * Whether duplicate constant pool items should be removed from modified classes.
+     */
+    @Parameter(property = "javax2jakarta.compact", defaultValue = "false")
+    private boolean compact;
+
+    @Parameter(property = "javax2jakarta.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping javax to jakarta transformation");
+            return;
+        }
+        final long start = System.nanoTime();
+        final int threads = this.threads > 0 ? this.threads : Runtime.getRuntime().availableProcessors();
+        try (FileTransformer t = FileTransformer.create(snapshot, compact, incrementalArchives, threads)) {
+            final String configuration = Fingerprints.toHex(t.getMappingDigest()) + (incrementalArchives ? INCREMENTAL_ARCHIVES : "");
+            final List<Input> inputs = getInputs(t);
+            // detect changed inputs, size and modification time are checked first to avoid reading unchanged inputs
+            final Fingerprints previous = Fingerprints.load(fingerprintsFile);
+            final Fingerprints current = new Fingerprints(configuration);
+            final List<Input> changedInputs = new ArrayList<>();
+            Fingerprints.Fingerprint fingerprint;
+            for (Input input : inputs) {
+                fingerprint = previous.isCompatible(configuration) ? previous.get(input.file) : null;
+                if (fingerprint != null && fingerprint.output.equals(input.output) && input.output.exists()) {
+                    if (fingerprint.isUnchanged(input.file)) {
+                        current.put(input.file, fingerprint);
+                        continue;
+                    }
+                    input.fingerprint = Fingerprints.Fingerprint.of(input.file, input.output);
+                    if (input.fingerprint.hash.equals(fingerprint.hash)) {
+                        current.put(input.file, input.fingerprint);
+                        continue;
+                    }
+                }
+                changedInputs.add(input);
+            }
+            // prune outputs of removed inputs
+            final Set<File> outputs = new HashSet<>();
+            for (Input input : inputs) {
+                outputs.add(input.output);
+            }
+            int pruned = 0;
+            for (Fingerprints.Fingerprint previousFingerprint : previous.values()) {
+                if (!outputs.contains(previousFingerprint.output) && Files.deleteIfExists(previousFingerprint.output.toPath())) pruned++;
+            }
+            transform(t, threads, changedInputs, current);
+            current.store(fingerprintsFile);
+            getLog().info("Transformed " + changedInputs.size() + " of " + inputs.size() + " inputs, " + (inputs.size() - changedInputs.size())
+                    + " up to date, " + pruned + " stale outputs pruned in " + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (final IOException | RuntimeException e) {
+            throw new MojoExecutionException("Javax to jakarta transformation failed", e);
+        }
+    }
+
+    /**
+     * Returns project classes directory files and selected dependencies with their output files.
+     */
+    private List<Input> getInputs(final FileTransformer t) throws IOException {
+        final List<Input> retVal = new ArrayList<>();
+        if (transformClasses && classesDirectory.isDirectory()) {
+            final Path inPath = classesDirectory.toPath();
+            final Path outPath = outputDirectory.toPath();
+            try (Stream<Path> paths = Files.walk(inPath)) {
+                for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                    final String name = inPath.relativize(path).toString().replace(File.separatorChar, SEP);
+                    final boolean resource = FileTransformer.isResource(name);
+                    retVal.add(new Input(path.toFile(), outPath.resolve(resource ? t.transformResourcePath(name) : name).toFile(), resource));
+                }
+            }
+        }
+        if (dependencies == null || dependencies.isEmpty()) return retVal;
+        for (Artifact artifact : project.getArtifacts()) {
+            if (!isSelected(artifact)) continue;
+            final File file = artifact.getFile();
+            if (file == null || !file.isFile()) {
+                getLog().warn("Dependency " + artifact + " is not resolved to a file, it won't be transformed");
+                continue;
+            }
+            // artifacts of different groups can share file name
+            retVal.add(new Input(file, new File(dependenciesDirectory, artifact.getGroupId() + GROUP_ID_SEPARATOR + file.getName()), false));
+        }
+        final Set<File> outputs = new HashSet<>();
+        for (Input input : retVal) {
+            if (!outputs.add(input.output)) {
+                throw new IOException("Multiple inputs would be transformed to " + input.output + ", selected dependencies must differ in group id or file name");
+            }
+        }
+        return retVal;
+    }
+
+    private boolean isSelected(final Artifact artifact) {
+        String[] parts;
+        for (String dependency : dependencies) {
+            parts = dependency.trim().split(":");
+            if (parts.length == 2 && matches(parts[0], artifact.getGroupId()) && matches(parts[1], artifact.getArtifactId())) return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(final String pattern, final String value) {
+        if (pattern.endsWith(WILDCARD)) return value.startsWith(pattern.substring(0, pattern.length() - WILDCARD.length()));
+        return pattern.equals(value);
+    }
+
+    /**
+     * Transforms changed inputs in parallel, largest first, and records their fingerprints.
+     */
+    private static void transform(final FileTransformer t, final int threads, final List<Input> changedInputs,
+                                  final Fingerprints current) throws IOException {
+        if (changedInputs.isEmpty()) return;
+        changedInputs.sort(Comparator.comparingLong((Input input) -> input.file.length()).reversed());
+        final ExecutorService inputExecutor = Executors.newFixedThreadPool(Math.min(threads, changedInputs.size()));
+        final List<Future<Fingerprints.Fingerprint>> tasks = new ArrayList<>(changedInputs.size());
+        try {
+            for (Input input : changedInputs) {
+                tasks.add(inputExecutor.submit(() -> {
+                    // fingerprint is taken first so input modified during transformation is detected by next build
+                    final Fingerprints.Fingerprint fingerprint = input.fingerprint != null ? input.fingerprint : Fingerprints.Fingerprint.of(input.file, input.output);
+                    Files.createDirectories(input.output.getAbsoluteFile().getParentFile().toPath());
+                    Files.deleteIfExists(input.output.toPath());
+                    if (input.resource) {
+                        t.transformResource(input.file, input.output);
+                    } else {
+                        t.transform(input.file, input.output);
+                    }
+                    return fingerprint;
+                }));
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                current.put(changedInputs.get(i).file, await(tasks.get(i)));
+            }
+        } finally {
+            inputExecutor.shutdownNow();
+        }
+    }
+
+    private static <T> T await(final Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Input file to transform.
+     */
+    private static final class Input {
+        private final File file;
+        private final File output;
+        private final boolean resource;
+        private Fingerprints.Fingerprint fingerprint;
+
+        private Input(final File file, final File output, final boolean resource) {
+            this.file = file;
+            this.output = output;
+            this.resource = resource;
+        }
+    }
+
+}
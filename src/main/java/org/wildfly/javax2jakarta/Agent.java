@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Java agent transforming classes at load time. Usage:
+ * <p>
+ *     <pre>
+ *         java -javaagent:javax2jakarta.jar[=option[,option]...] ...
+ *     </pre>
+ * </p>
+ * Supported options are:
+ * <ul>
+ *     <li><code>exclude=class.loader.ClassName</code> - classes defined by class loaders of given type will not be transformed.
+ *     Can be specified multiple times. Classes defined by bootstrap and platform class loaders are never transformed.</li>
+ *     <li><code>report</code> - time spent in transformation and transformation statistics will be printed to standard error stream on JVM exit.
+ *     Statistics are also exposed via JMX.</li>
+ *     <li><code>cache=/path/to/directory</code> - transformation results will be stored to and reused from persistent cache.</li>
+ *     <li><code>cacheLimit=size</code> - maximum size of persistent cache in megabytes, defaults to <code>1024</code>.</li>
+ *     <li><code>snapshot=/path/to/file</code> - transformer will be loaded from given precompiled snapshot.</li>
+ *     <li><code>memoryCacheLimit=size</code> - maximum size of in-memory cache of transformation results in megabytes,
+ *     defaults to <code>64</code>. Identical classes loaded by multiple class loaders are transformed only once.
+ *     Zero disables the cache.</li>
+ *     <li><code>compact</code> - duplicate constant pool items will be removed from modified classes.</li>
+ * </ul>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class Agent implements ClassFileTransformer {
+
+    private static final String OPTIONS_SEPARATOR = ",";
+    private static final String EXCLUDE_OPTION = "exclude=";
+    private static final String REPORT_OPTION = "report";
+    private static final String CACHE_OPTION = "cache=";
+    private static final String CACHE_LIMIT_OPTION = "cacheLimit=";
+    private static final String SNAPSHOT_OPTION = "snapshot=";
+    private static final String MEMORY_CACHE_LIMIT_OPTION = "memoryCacheLimit=";
+    private static final String COMPACT_OPTION = "compact";
+    private static final long DEFAULT_CACHE_LIMIT = 1024;
+    private static final long DEFAULT_MEMORY_CACHE_LIMIT = 64;
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final Transformer transformer;
+    private final ClassLoader platformClassLoader;
+    private final Set<String> excludedClassLoaders;
+    private final boolean report;
+    private final TransformationCache cache;
+    private final ClassCache memoryCache;
+    private final LongAdder classesCount = new LongAdder();
+    private final LongAdder patchedClassesCount = new LongAdder();
+    private final LongAdder transformationTime = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param transformer class file transformer
+     * @param excludedClassLoaders class names of class loaders to exclude
+     * @param report whether to measure time spent in transformation
+     * @param cache persistent cache or <code>null</code>
+     * @param memoryCache in-memory cache or <code>null</code>
+     */
+    private Agent(final Transformer transformer, final Set<String> excludedClassLoaders, final boolean report, final TransformationCache cache,
+                  final ClassCache memoryCache) {
+        this.transformer = transformer;
+        this.platformClassLoader = ClassLoaders.getPlatformClassLoader();
+        this.excludedClassLoaders = excludedClassLoaders;
+        this.report = report;
+        this.cache = cache;
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * Agent entry point when started via <code>-javaagent</code> JVM option.
+     *
+     * @param args agent options
+     * @param inst instrumentation
+     * @throws IOException if mapping configuration couldn't be read
+     */
+    public static void premain(final String args, final Instrumentation inst) throws IOException {
+        final Set<String> excludedClassLoaders = new HashSet<>();
+        boolean report = false;
+        File cacheDirectory = null;
+        long cacheLimit = DEFAULT_CACHE_LIMIT;
+        File snapshot = null;
+        long memoryCacheLimit = DEFAULT_MEMORY_CACHE_LIMIT;
+        boolean compact = false;
+        if (args != null) {
+            for (String option : args.split(OPTIONS_SEPARATOR)) {
+                if (option.startsWith(EXCLUDE_OPTION)) {
+                    excludedClassLoaders.add(option.substring(EXCLUDE_OPTION.length()));
+                } else if (REPORT_OPTION.equals(option)) {
+                    report = true;
+                } else if (COMPACT_OPTION.equals(option)) {
+                    compact = true;
+                } else if (option.startsWith(CACHE_OPTION)) {
+                    cacheDirectory = new File(option.substring(CACHE_OPTION.length()));
+                } else if (option.startsWith(CACHE_LIMIT_OPTION)) {
+                    cacheLimit = Long.parseLong(option.substring(CACHE_LIMIT_OPTION.length()));
+                    if (cacheLimit < 1 || cacheLimit > Long.MAX_VALUE / MEGABYTE) {
+                        throw new IllegalArgumentException("Agent option " + option + " requires positive number");
+                    }
+                } else if (option.startsWith(MEMORY_CACHE_LIMIT_OPTION)) {
+                    memoryCacheLimit = Long.parseLong(option.substring(MEMORY_CACHE_LIMIT_OPTION.length()));
+                    if (memoryCacheLimit < 0 || memoryCacheLimit > Long.MAX_VALUE / MEGABYTE) {
+                        throw new IllegalArgumentException("Agent option " + option + " requires non-negative number");
+                    }
+                } else if (option.startsWith(SNAPSHOT_OPTION)) {
+                    snapshot = new File(option.substring(SNAPSHOT_OPTION.length()));
+                } else if (!option.isEmpty()) {
+                    throw new IllegalArgumentException("Unknown agent option " + option);
+                }
+            }
+        }
+        final TransformationCache cache = cacheDirectory != null ? new TransformationCache(cacheDirectory, cacheLimit * MEGABYTE) : null;
+        final ClassCache memoryCache = memoryCacheLimit > 0 ? new ClassCache(memoryCacheLimit * MEGABYTE) : null;
+        final Agent agent = new Agent(Main.getTransformer(report, compact, snapshot), excludedClassLoaders, report, cache, memoryCache);
+        if (report) {
+            agent.transformer.getStatistics().registerMBean();
+            Runtime.getRuntime().addShutdownHook(new Thread(agent::printReport));
+        }
+        inst.addTransformer(agent);
+    }
+
+    /**
+     * Agent entry point when attached to running JVM. Only classes loaded after the attachment will be transformed.
+     *
+     * @param args agent options
+     * @param inst instrumentation
+     * @throws IOException if mapping configuration couldn't be read
+     */
+    public static void agentmain(final String args, final Instrumentation inst) throws IOException {
+        premain(args, inst);
+    }
+
+    @Override
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+                            final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+        if (loader == null || loader == platformClassLoader) return null;
+        if (!excludedClassLoaders.isEmpty() && excludedClassLoaders.contains(loader.getClass().getName())) return null;
+        final long start = report ? System.nanoTime() : 0;
+        try {
+            final byte[] retVal = transform(classfileBuffer);
+            if (retVal == classfileBuffer) return null;
+            if (report) patchedClassesCount.increment();
+            return retVal;
+        } catch (final Throwable t) {
+            System.err.println("Couldn't transform class " + className + ": " + t);
+            return null;
+        } finally {
+            if (report) {
+                transformationTime.add(System.nanoTime() - start);
+                classesCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Transforms class byte code. Classes which may be modified are looked up in in-memory cache first
+     * and in persistent cache then, the rest is rejected by the transformer without parsing.
+     */
+    private byte[] transform(final byte[] clazz) throws IOException {
+        if (memoryCache == null && cache == null || !transformer.mayTransform(clazz)) return transformer.transform(clazz);
+        if (memoryCache == null) return transformCached(clazz);
+        byte[] retVal = memoryCache.get(clazz);
+        if (retVal == null) {
+            retVal = cache != null ? transformCached(clazz) : transformer.transform(clazz);
+            memoryCache.put(clazz, retVal);
+        }
+        return retVal;
+    }
+
+    private byte[] transformCached(final byte[] clazz) throws IOException {
+        final String key = cache.getKey(transformer, TransformationCache.CLASS_KIND, clazz, 0, clazz.length);
+        final ByteBuffer cachedClass = cache.get(key);
+        if (cachedClass != null) {
+            final byte[] retVal = new byte[cachedClass.remaining()];
+            cachedClass.get(retVal);
+            return retVal;
+        }
+        final byte[] retVal = transformer.transform(clazz);
+        if (retVal != clazz) cache.put(key, retVal, 0, retVal.length);
+        return retVal;
+    }
+
+    private void printReport() {
+        System.err.println("javax2jakarta agent transformed " + patchedClassesCount.sum() + " of " + classesCount.sum()
+                + " loaded classes and added " + (transformationTime.sum() / 1000000) + " ms to class loading"
+                + (memoryCache != null ? ", " + memoryCache.getHits() + " classes were served from memory cache" : ""));
+        System.err.print(transformer.getStatistics());
+    }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static org.wildfly.javax2jakarta.IOUtils.await;
+import static org.wildfly.javax2jakarta.IOUtils.readBytes;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+
+/**
+ * Reports mapping matches in class files, archives and directories without transforming them.
+ * Files are analyzed in parallel, nested archives are analyzed recursively in memory.
+ * The report lists every match with the class file location, class name, <code>constant pool</code> index
+ * and matched mapping. Report is written in JSON format if its file name ends with <code>.json</code>,
+ * in CSV format otherwise. Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class Analyzer {
+
+    private static final String CLASS_FILE_EXT = ArchiveTransformer.CLASS_FILE_EXT;
+    private static final String JSON_FILE_EXT = ".json";
+    private static final String NESTED_ENTRY_SEPARATOR = "!/";
+    private static final char SEP = '/';
+
+    private final Transformer transformer;
+    private final String[] mappingFrom;
+    private final int threads;
+
+    /**
+     * Constructor.
+     *
+     * @param transformer class file transformer providing the mapping
+     * @param threads count of threads analyzing files
+     */
+    Analyzer(final Transformer transformer, final int threads) {
+        this.transformer = transformer;
+        this.threads = threads;
+        final byte[][] mappingFrom = transformer.getMappingFrom();
+        this.mappingFrom = new String[mappingFrom.length];
+        for (int i = 1; i < mappingFrom.length; i++) {
+            this.mappingFrom[i] = ClassFileUtils.utf8ToString(mappingFrom[i], 0, mappingFrom[i].length);
+        }
+    }
+
+    /**
+     * Analyzes class file, archive or all class files and archives in directory tree and writes report.
+     *
+     * @param source class file, archive or directory to analyze
+     * @param report report file to create
+     * @return analysis summary
+     * @throws IOException if some I/O error occurs
+     */
+    String analyze(final File source, final File report) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        final Path sourcePath = source.toPath();
+        if (source.isDirectory()) {
+            try (Stream<Path> paths = Files.walk(sourcePath)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    if (Files.isRegularFile(path) && isSupported(path.getFileName().toString())) files.add(path);
+                }
+            }
+        } else {
+            files.add(sourcePath);
+        }
+        final ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        final List<Future<FileReport>> tasks = new ArrayList<>(files.size());
+        FutureTask<FileReport> task;
+        try (ReportWriter writer = report.getName().endsWith(JSON_FILE_EXT) ? new JsonReportWriter(report) : new CsvReportWriter(report)) {
+            for (Path file : files) {
+                final String location = source.isDirectory() ? sourcePath.relativize(file).toString().replace(File.separatorChar, SEP) : file.getFileName().toString();
+                task = new FutureTask<>(() -> analyzeFile(file.toFile(), location));
+                if (executor != null) {
+                    executor.execute(task);
+                } else {
+                    task.run();
+                }
+                tasks.add(task);
+            }
+            int matchingClasses = 0, matches = 0;
+            FileReport fileReport;
+            for (Future<FileReport> pendingTask : tasks) {
+                fileReport = await(pendingTask);
+                matchingClasses += fileReport.matchingClasses;
+                for (Match match : fileReport.matches) {
+                    writer.write(match);
+                }
+                matches += fileReport.matches.size();
+            }
+            return "Found " + matches + " matches in " + matchingClasses + " classes of " + files.size() + " files";
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static boolean isSupported(final String name) {
+        return name.endsWith(CLASS_FILE_EXT) || ArchiveTransformer.isArchive(name);
+    }
+
+    private FileReport analyzeFile(final File file, final String location) throws IOException {
+        final FileReport retVal = new FileReport();
+        if (file.getName().endsWith(CLASS_FILE_EXT)) {
+            if (file.length() > Integer.MAX_VALUE) {
+                throw new UnsupportedOperationException("File " + file.getAbsolutePath() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+            }
+            final byte[] clazz = new byte[(int) file.length()];
+            readBytes(new FileInputStream(file), clazz, true);
+            analyzeClass(location, clazz, retVal);
+        } else {
+            try (ZipReader zip = ZipReader.open(file)) {
+                analyzeArchive(zip, location, retVal);
+            }
+        }
+        return retVal;
+    }
+
+    private void analyzeArchive(final ZipReader zip, final String location, final FileReport report) throws IOException {
+        for (ZipReader.Entry entry : zip.getEntries()) {
+            if (entry.name.endsWith(CLASS_FILE_EXT)) {
+                analyzeClass(location + NESTED_ENTRY_SEPARATOR + entry.name, zip.read(entry), report);
+            } else if (ArchiveTransformer.isArchive(entry.name)) {
+                try (ZipReader nestedZip = ZipReader.open(zip.read(entry))) {
+                    analyzeArchive(nestedZip, location + NESTED_ENTRY_SEPARATOR + entry.name, report);
+                }
+            }
+        }
+    }
+
+    private void analyzeClass(final String location, final byte[] clazz, final FileReport report) {
+        report.location = location;
+        try {
+            if (transformer.analyze(clazz, 0, clazz.length, report)) report.matchingClasses++;
+        } catch (final RuntimeException | UnsupportedClassVersionError e) {
+            System.err.println("Couldn't analyze class " + location + ": " + e);
+        }
+    }
+
+    /**
+     * Matches found in single file.
+     */
+    private final class FileReport implements Transformer.MatchListener {
+        private final List<Match> matches = new ArrayList<>();
+        private String location;
+        private int matchingClasses;
+
+        @Override
+        public void match(final String className, final int poolIndex, final int mappingIndex) {
+            matches.add(new Match(location, className, poolIndex, mappingFrom[mappingIndex]));
+        }
+    }
+
+    /**
+     * Single mapping match.
+     */
+    private static final class Match {
+        private final String location;
+        private final String className;
+        private final int poolIndex;
+        private final String mapping;
+
+        private Match(final String location, final String className, final int poolIndex, final String mapping) {
+            this.location = location;
+            this.className = className;
+            this.poolIndex = poolIndex;
+            this.mapping = mapping;
+        }
+    }
+
+    /**
+     * Writes matches to report file.
+     */
+    private abstract static class ReportWriter implements Closeable {
+        final Writer writer;
+
+        private ReportWriter(final File report) throws IOException {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(report), StandardCharsets.UTF_8));
+        }
+
+        abstract void write(Match match) throws IOException;
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes report as CSV with header line.
+     */
+    private static final class CsvReportWriter extends ReportWriter {
+        private CsvReportWriter(final File report) throws IOException {
+            super(report);
+            writer.write("location,class,constantPoolIndex,mapping\n");
+        }
+
+        @Override
+        void write(final Match match) throws IOException {
+            writeValue(match.location);
+            writer.write(',');
+            writeValue(match.className);
+            writer.write(',');
+            writer.write(Integer.toString(match.poolIndex));
+            writer.write(',');
+            writeValue(match.mapping);
+            writer.write('\n');
+        }
+
+        private void writeValue(final String value) throws IOException {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Writes report as JSON array of match objects.
+     */
+    private static final class JsonReportWriter extends ReportWriter {
+        private boolean first = true;
+
+        private JsonReportWriter(final File report) throws IOException {
+            super(report);
+            writer.write('[');
+        }
+
+        @Override
+        void write(final Match match) throws IOException {
+            writer.write(first ? "\n  {\"location\": " : ",\n  {\"location\": ");
+            first = false;
+            writeValue(match.location);
+            writer.write(", \"class\": ");
+            writeValue(match.className);
+            writer.write(", \"constantPoolIndex\": ");
+            writer.write(Integer.toString(match.poolIndex));
+            writer.write(", \"mapping\": ");
+            writeValue(match.mapping);
+            writer.write('}');
+        }
+
+        private void writeValue(final String value) throws IOException {
+            writer.write('"');
+            char c;
+            for (int i = 0; i < value.length(); i++) {
+                c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    writer.write('\\');
+                    writer.write(c);
+                } else if (c < 0x20) {
+                    writer.write(String.format("\\u%04x", (int) c));
+                } else {
+                    writer.write(c);
+                }
+            }
+            writer.write('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writer.write(first ? "]\n" : "\n]\n");
+            } finally {
+                super.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,476 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static org.wildfly.javax2jakarta.IOUtils.await;
+import static org.wildfly.javax2jakarta.IOUtils.readAll;
+import static org.wildfly.javax2jakarta.IOUtils.safeClose;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Transforms archives (jar, war, ear and rar files). Class files and resources are transformed,
+ * service provider configuration files are renamed, nested archives are transformed recursively in memory,
+ * other files are copied.
+ * In incremental mode unchanged entries are copied as raw compressed data including their original CRC and modification time,
+ * only modified entries are recompressed and directory entries are preserved. Its output depends only on its input then.
+ * In streaming mode archives are read sequentially as {@link ZipInputStream} so they can come from non seekable streams,
+ * entries of unknown size are supported and memory consumption is bounded by the in flight bytes limit
+ * regardless of archive size, large nested archives are transformed recursively while read.
+ * Only class files are always held in memory whole. Unchanged entries are recompressed in streaming mode even if incremental.
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ArchiveTransformer {
+
+    static final String CLASS_FILE_EXT = ".class";
+    private static final String[] ARCHIVE_FILE_EXTS = {".jar", ".war", ".ear", ".rar"};
+    private static final int ENTRIES_PER_THREAD = 4;
+    private static final int MAX_BUFFERED_ENTRY_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Transformer transformer;
+    private final ResourceTransformer resourceTransformer;
+    private final ExecutorService executor;
+    private final int threads;
+    private final boolean incremental;
+    private final long inFlightLimit;
+    private final int dosTime;
+    private final TransformerStats stats;
+
+    /**
+     * Constructor.
+     *
+     * @param transformer class file transformer
+     * @param threads count of threads transforming top level archive entries
+     * @param incremental whether unchanged entries should be copied without recompression
+     * @param inFlightLimit maximum count of bytes buffered by streaming mode, zero if archive files should be memory mapped instead
+     */
+    ArchiveTransformer(final Transformer transformer, final int threads, final boolean incremental, final long inFlightLimit) {
+        this(transformer, null, threads, incremental, inFlightLimit);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param transformer class file transformer
+     * @param executor executor shared by all archive transformations, <code>null</code> if each transformation uses its own threads
+     * @param threads count of threads transforming top level archive entries
+     * @param incremental whether unchanged entries should be copied without recompression
+     * @param inFlightLimit maximum count of bytes buffered by streaming mode, zero if archive files should be memory mapped instead
+     */
+    ArchiveTransformer(final Transformer transformer, final ExecutorService executor, final int threads, final boolean incremental, final long inFlightLimit) {
+        this.transformer = transformer;
+        this.resourceTransformer = new ResourceTransformer(transformer);
+        this.executor = executor;
+        this.threads = threads;
+        this.incremental = incremental;
+        this.inFlightLimit = inFlightLimit;
+        this.dosTime = ZipWriter.toDosTime(System.currentTimeMillis());
+        this.stats = transformer.getStatistics();
+    }
+
+    /**
+     * Returns kind of transformation performed by this instance, distinguishes its cached results.
+     *
+     * @return transformation cache kind
+     */
+    String getCacheKind() {
+        final String kind = incremental ? TransformationCache.INCREMENTAL_ARCHIVE_KIND : TransformationCache.ARCHIVE_KIND;
+        return inFlightLimit > 0 ? kind + TransformationCache.STREAMED_KIND_SUFFIX : kind;
+    }
+
+    /**
+     * Returns <code>true</code> if file name denotes supported archive.
+     *
+     * @param name file name
+     * @return <code>true</code> if file is archive, <code>false</code> otherwise
+     */
+    static boolean isArchive(final String name) {
+        for (String archiveFileExt : ARCHIVE_FILE_EXTS) {
+            if (name.endsWith(archiveFileExt)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns supported archive file extensions.
+     *
+     * @return archive file extensions
+     */
+    static String[] getArchiveFileExts() {
+        return ARCHIVE_FILE_EXTS.clone();
+    }
+
+    /**
+     * Transforms archive file. Entries are read, transformed and compressed in parallel
+     * and written to target archive in their original order. Archive is streamed if in flight bytes limit was configured.
+     *
+     * @param inArchive archive to transform
+     * @param outArchive archive to create
+     * @throws IOException if some I/O error occurs
+     */
+    void transform(final File inArchive, final File outArchive) throws IOException {
+        if (inFlightLimit > 0) {
+            transform(new BufferedInputStream(new FileInputStream(inArchive)), new FileOutputStream(outArchive));
+            return;
+        }
+        final Deque<Future<ZipWriter.Entry>> pendingEntries = new ArrayDeque<>();
+        final ExecutorService executor = newExecutor();
+        ZipReader zip = null;
+        ZipWriter zipWriter = null;
+        FutureTask<ZipWriter.Entry> task;
+
+        try {
+            zip = ZipReader.open(inArchive);
+            zipWriter = new ZipWriter(new FileOutputStream(outArchive));
+
+            for (ZipReader.Entry inEntry : zip.getEntries()) {
+                // archive entry preconditions
+                if (!incremental && inEntry.size == 0) {
+                    continue; // directories
+                }
+                if (inEntry.size > Integer.MAX_VALUE) {
+                    throw new UnsupportedOperationException("File " + inEntry.name + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+                }
+                // reading, transforming and compressing archive entry, possibly in parallel
+                task = new FutureTask<>(new EntryTransformation(zip, inEntry));
+                if (executor != null) {
+                    executor.execute(task);
+                } else {
+                    task.run();
+                }
+                pendingEntries.addLast(task);
+                // writing modified archive entries in original order
+                while (pendingEntries.size() >= threads * ENTRIES_PER_THREAD) {
+                    write(zipWriter, await(pendingEntries.removeFirst()));
+                }
+            }
+            while (!pendingEntries.isEmpty()) {
+                write(zipWriter, await(pendingEntries.removeFirst()));
+            }
+        } finally {
+            shutdown(executor, pendingEntries);
+            safeClose(zip);
+            safeClose(zipWriter);
+        }
+    }
+
+    /**
+     * Transforms archive stream. Class files and small entries are read by the calling thread,
+     * transformed and compressed in parallel and written in their original order. Entries buffered this way
+     * are written before more than in flight bytes limit is held in memory, both their content and compressed results count.
+     * Class files must be transformed whole, so single class file larger than the limit is the only exception.
+     * Nested archives of unknown size or larger than buffered entry limit are transformed recursively while read.
+     * Other entries, including entries of unknown size, are compressed while read, resources are transformed on the fly.
+     * Both streams are closed.
+     *
+     * @param inArchive archive stream to transform
+     * @param outArchive stream to write transformed archive to
+     * @throws IOException if some I/O error occurs
+     */
+    void transform(final InputStream inArchive, final OutputStream outArchive) throws IOException {
+        final Deque<Future<ZipWriter.Entry>> pendingEntries = new ArrayDeque<>();
+        final ExecutorService executor = newExecutor();
+        final long bufferedEntryLimit = Math.min(MAX_BUFFERED_ENTRY_SIZE, Math.max(inFlightLimit, 1));
+        // bytes held by pending entries, entry content until it is compressed and compressed content afterwards
+        final AtomicLong inFlight = new AtomicLong();
+        ZipInputStream zip = null;
+        ZipWriter zipWriter = null;
+        ZipEntry inEntry;
+        FutureTask<ZipWriter.Entry> task;
+
+        try {
+            zip = new ZipInputStream(inArchive);
+            zipWriter = new ZipWriter(outArchive instanceof BufferedOutputStream ? outArchive : new BufferedOutputStream(outArchive));
+
+            while ((inEntry = zip.getNextEntry()) != null) {
+                // archive entry preconditions
+                if (!incremental && (inEntry.isDirectory() || inEntry.getSize() == 0)) {
+                    continue; // directories
+                }
+                final String inName = inEntry.getName();
+                final String name = resourceTransformer.transformName(inName);
+                final int entryDosTime = incremental ? ZipWriter.toDosTime(inEntry.getTime()) : dosTime;
+                if (!inName.endsWith(CLASS_FILE_EXT) && (inEntry.getSize() < 0 || inEntry.getSize() > bufferedEntryLimit)) {
+                    // large entry or entry of unknown size, pending entries must be written first to preserve order
+                    while (!pendingEntries.isEmpty()) {
+                        writePending(zipWriter, pendingEntries, inFlight);
+                    }
+                    if (isArchive(inName)) {
+                        transform(new NonClosingInputStream(zip), new BufferedOutputStream(zipWriter.newEntry(name, entryDosTime)));
+                    } else {
+                        copy(inName, zip, ResourceTransformer.isResource(inName) ? resourceTransformer.newOutputStream(zipWriter.newEntry(name, entryDosTime)) : zipWriter.newEntry(name, entryDosTime));
+                    }
+                    continue;
+                }
+                // reading archive entry, then transforming and compressing it, possibly in parallel
+                while (!pendingEntries.isEmpty() && inFlight.get() + Math.max(inEntry.getSize(), 0) > inFlightLimit) {
+                    writePending(zipWriter, pendingEntries, inFlight);
+                }
+                final byte[] data = readAll(zip);
+                if (!incremental && data.length == 0) {
+                    continue;
+                }
+                while (!pendingEntries.isEmpty() && inFlight.get() + data.length > inFlightLimit) {
+                    writePending(zipWriter, pendingEntries, inFlight);
+                }
+                inFlight.addAndGet(data.length);
+                task = new FutureTask<>(() -> {
+                    final ZipWriter.Entry outEntry = compress(name, transform(inName, data), entryDosTime);
+                    inFlight.addAndGet(outEntry.length - data.length);
+                    return outEntry;
+                });
+                if (executor != null) {
+                    executor.execute(task);
+                } else {
+                    task.run();
+                }
+                pendingEntries.addLast(task);
+                // writing modified archive entries in original order
+                while (!pendingEntries.isEmpty() && (inFlight.get() > inFlightLimit || pendingEntries.size() >= threads * ENTRIES_PER_THREAD)) {
+                    writePending(zipWriter, pendingEntries, inFlight);
+                }
+            }
+            while (!pendingEntries.isEmpty()) {
+                writePending(zipWriter, pendingEntries, inFlight);
+            }
+        } finally {
+            shutdown(executor, pendingEntries);
+            safeClose(zip != null ? zip : inArchive);
+            safeClose(zipWriter != null ? zipWriter : outArchive);
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        if (executor != null) return executor;
+        return threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    }
+
+    private void shutdown(final ExecutorService executor, final Deque<Future<ZipWriter.Entry>> pendingEntries) {
+        if (executor == null) return;
+        if (executor != this.executor) {
+            executor.shutdownNow();
+        } else {
+            // shared executor, only pending tasks of failed transformation are cancelled
+            for (Future<ZipWriter.Entry> pendingEntry : pendingEntries) {
+                pendingEntry.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Transforms archive entry content.
+     *
+     * @param name entry name
+     * @param data entry content
+     * @return either original or transformed entry content
+     * @throws IOException if nested archive couldn't be read
+     */
+    private byte[] transform(final String name, final byte[] data) throws IOException {
+        final ArchiveEntryEvent event = new ArchiveEntryEvent();
+        event.begin();
+        final byte[] retVal;
+        if (name.endsWith(CLASS_FILE_EXT)) {
+            retVal = transformer.transform(data);
+        } else if (isArchive(name)) {
+            retVal = transformNested(data);
+        } else if (ResourceTransformer.isResource(name)) {
+            retVal = resourceTransformer.transform(data);
+        } else {
+            retVal = data;
+        }
+        if (event.shouldCommit()) {
+            event.entryName = name;
+            event.inputSize = data.length;
+            event.outputSize = retVal.length;
+            event.commit();
+        }
+        return retVal;
+    }
+
+    /**
+     * Transforms archive entry content in incremental mode. Only class files, nested archives and resources are read.
+     *
+     * @param zip archive
+     * @param entry archive entry
+     * @return transformed entry content or <code>null</code> if entry content was not modified
+     * @throws IOException if entry content couldn't be read
+     */
+    private byte[] transformIncremental(final ZipReader zip, final ZipReader.Entry entry) throws IOException {
+        if (!entry.name.endsWith(CLASS_FILE_EXT) && !isArchive(entry.name) && !ResourceTransformer.isResource(entry.name)) return null;
+        final byte[] data = read(zip, entry);
+        final byte[] newData = transform(entry.name, data);
+        return newData != data ? newData : null;
+    }
+
+    /**
+     * Transforms nested archive in memory.
+     *
+     * @param archive nested archive content
+     * @return transformed nested archive content, in incremental mode original content if no entry was modified
+     * @throws IOException if nested archive couldn't be read
+     */
+    private byte[] transformNested(final byte[] archive) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(archive.length);
+        boolean modified = false;
+        String name;
+        byte[] data;
+
+        try (ZipReader zip = ZipReader.open(archive);
+             ZipWriter zipWriter = new ZipWriter(baos)) {
+            for (ZipReader.Entry inEntry : zip.getEntries()) {
+                if (!incremental) {
+                    if (inEntry.size == 0) continue; // directories
+                    zipWriter.write(compress(resourceTransformer.transformName(inEntry.name), transform(inEntry.name, read(zip, inEntry)), dosTime));
+                    continue;
+                }
+                name = resourceTransformer.transformName(inEntry.name);
+                data = transformIncremental(zip, inEntry);
+                modified |= data != null || name != inEntry.name;
+                zipWriter.write(data != null ? compress(name, data, inEntry.dosTime) : copy(name, inEntry, zip.getRawData(inEntry)));
+            }
+        }
+        return incremental && !modified ? archive : baos.toByteArray();
+    }
+
+    private byte[] read(final ZipReader zip, final ZipReader.Entry entry) throws IOException {
+        final long start = stats != null ? System.nanoTime() : 0;
+        final byte[] retVal = zip.read(entry);
+        if (stats != null) {
+            if (entry.method == ZipEntry.DEFLATED) {
+                stats.recordCompression(System.nanoTime() - start);
+            } else {
+                stats.recordIo(System.nanoTime() - start);
+            }
+        }
+        return retVal;
+    }
+
+    private ZipWriter.Entry compress(final String name, final byte[] data, final int dosTime) {
+        final long start = stats != null ? System.nanoTime() : 0;
+        final ZipWriter.Entry retVal = ZipWriter.compress(name, data, dosTime);
+        if (stats != null) stats.recordCompression(System.nanoTime() - start);
+        return retVal;
+    }
+
+    private void writePending(final ZipWriter zipWriter, final Deque<Future<ZipWriter.Entry>> pendingEntries, final AtomicLong inFlight) throws IOException {
+        final ZipWriter.Entry entry = await(pendingEntries.removeFirst());
+        write(zipWriter, entry);
+        inFlight.addAndGet(-entry.length);
+    }
+
+    private void write(final ZipWriter zipWriter, final ZipWriter.Entry entry) throws IOException {
+        final long start = stats != null ? System.nanoTime() : 0;
+        zipWriter.write(entry);
+        if (stats != null) stats.recordIo(System.nanoTime() - start);
+    }
+
+    private void copy(final String name, final InputStream is, final OutputStream os) throws IOException {
+        final long start = stats != null ? System.nanoTime() : 0;
+        final ArchiveEntryEvent event = new ArchiveEntryEvent();
+        event.begin();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try {
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                os.write(buffer, 0, count);
+                size += count;
+            }
+        } finally {
+            os.close();
+        }
+        if (stats != null) stats.recordCompression(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.entryName = name;
+            event.inputSize = size;
+            event.streamed = true;
+            event.commit();
+        }
+    }
+
+    private static ZipWriter.Entry copy(final String name, final ZipReader.Entry entry, final ByteBuffer raw) {
+        return new ZipWriter.Entry(name, entry.method, entry.crc, entry.size, raw, entry.dosTime);
+    }
+
+    /**
+     * Nested archive entry stream. Closing it leaves enclosing archive stream open.
+     */
+    private static final class NonClosingInputStream extends FilterInputStream {
+        private NonClosingInputStream(final InputStream is) {
+            super(is);
+        }
+
+        @Override
+        public void close() {
+            // enclosing archive stream is closed by its owner
+        }
+    }
+
+    /**
+     * Reads, transforms and compresses single archive entry.
+     */
+    private final class EntryTransformation implements Callable<ZipWriter.Entry> {
+        private final ZipReader zip;
+        private final ZipReader.Entry entry;
+
+        private EntryTransformation(final ZipReader zip, final ZipReader.Entry entry) {
+            this.zip = zip;
+            this.entry = entry;
+        }
+
+        @Override
+        public ZipWriter.Entry call() throws IOException {
+            if (!incremental) {
+                // transform byte code of class files, nested archives and resources
+                return compress(resourceTransformer.transformName(entry.name), transform(entry.name, read(zip, entry)), dosTime);
+            }
+            // recompress only modified entries
+            final String name = resourceTransformer.transformName(entry.name);
+            final byte[] data = transformIncremental(zip, entry);
+            return data != null ? compress(name, data, entry.dosTime) : copy(name, entry, zip.getRawData(entry));
+        }
+    }
+
+}
@@ -0,0 +1,497 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static org.wildfly.javax2jakarta.TransformerSnapshot.check;
+import static org.wildfly.javax2jakarta.TransformerSnapshot.readInts;
+import static org.wildfly.javax2jakarta.TransformerSnapshot.writeInts;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Aho-Corasick automaton searching for all mapping strings in a single pass.
+ * Unless the automaton is too big it is compiled to deterministic form so every input byte costs exactly one table lookup,
+ * otherwise failure links are followed on sparse trie. Patterns may overlap each other if the automaton
+ * was compiled for overlapping patterns, leftmost match wins then and the longest one of matches starting at the same position.
+ * Instances of this class are immutable.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class Automaton {
+
+    /**
+     * Returned by {@link #find(byte[], int, int)} if there is no match.
+     */
+    static final long NO_MATCH = -1;
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+    private static final int MAX_DENSE_TRANSITIONS = 1 << 22;
+
+    /**
+     * Maps every byte value to its character class. Bytes not present in any pattern share character class <code>zero</code>,
+     * other character classes preserve byte value ordering.
+     */
+    private final int[] classes;
+
+    /**
+     * Count of character classes.
+     */
+    private final int width;
+
+    /**
+     * Deterministic transition table or <code>null</code> if the automaton is sparse. Row of every state starts
+     * at index <code>state * width</code> and has one column for every character class. Non-negative values are
+     * the next row offset, negative values are bitwise complement of the next row offset of states some pattern ends in.
+     */
+    private final int[] transitions;
+
+    /**
+     * Trie children of state <code>s</code> are states <code>childStart[s]</code> to <code>childStart[s + 1] - 1</code>,
+     * ordered by their labels. States are numbered breadth first.
+     */
+    private final int[] childStart;
+
+    /**
+     * Character class of trie edge leading to state.
+     */
+    private final int[] labels;
+
+    /**
+     * Failure links. State the longest proper suffix of state string which is trie state leads to.
+     */
+    private final int[] fail;
+
+    /**
+     * State string lengths.
+     */
+    private final int[] depth;
+
+    /**
+     * Index of pattern equal to state string or <code>zero</code>.
+     */
+    private final int[] output;
+
+    /**
+     * Whether some pattern is suffix of state string.
+     */
+    private final boolean[] matching;
+
+    /**
+     * Whether patterns can overlap each other.
+     */
+    private final boolean overlapping;
+
+    /**
+     * Longest prefix shared by all patterns. Data not containing it cannot contain any pattern.
+     */
+    private final byte[] prefix;
+
+    /**
+     * Bytes any pattern starts with. Used for rejecting data when patterns do not share common prefix.
+     */
+    private final boolean[] leadingBytes;
+
+    private Automaton(final int[] classes, final int width, final int[] transitions, final int[] childStart, final int[] labels,
+                      final int[] fail, final int[] depth, final int[] output, final boolean[] matching, final boolean overlapping,
+                      final byte[] prefix, final boolean[] leadingBytes) {
+        this.classes = classes;
+        this.width = width;
+        this.transitions = transitions;
+        this.childStart = childStart;
+        this.labels = labels;
+        this.fail = fail;
+        this.depth = depth;
+        this.output = output;
+        this.matching = matching;
+        this.overlapping = overlapping;
+        this.prefix = prefix;
+        this.leadingBytes = leadingBytes;
+    }
+
+    /**
+     * Fast rejection test. Returns <code>false</code> if given data region cannot contain any pattern.
+     * If <code>true</code> is returned data region may or may not contain some pattern.
+     *
+     * @param data data to investigate
+     * @param offset the index of the first byte to investigate
+     * @param limit first index not belonging to investigated data region
+     * @return <code>false</code> if there is no pattern in given data region, <code>true</code> otherwise
+     */
+    boolean mayMatch(final byte[] data, final int offset, final int limit) {
+        if (prefix.length == 0) {
+            for (int i = offset; i < limit; i++) {
+                if (leadingBytes[data[i] & 0xFF]) return true;
+            }
+            return false;
+        }
+        final byte first = prefix[0];
+        final int last = limit - prefix.length;
+        int j;
+        for (int i = offset; i <= last; i++) {
+            if (data[i] != first) continue;
+            for (j = 1; j < prefix.length; j++) {
+                if (data[i + j] != prefix[j]) break;
+            }
+            if (j == prefix.length) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the first match in given data region. Once a match is found the search should continue after its end.
+     *
+     * @param data data to investigate
+     * @param offset the index of the first byte to investigate
+     * @param limit first index not belonging to investigated data region
+     * @return {@link #NO_MATCH} or match start index in upper 32 bits and matched pattern index in lower 32 bits
+     */
+    long find(final byte[] data, final int offset, final int limit) {
+        final int[] classes = this.classes;
+        int state = ROOT;
+        if (transitions != null) {
+            final int[] transitions = this.transitions;
+            for (int i = offset; i < limit; i++) {
+                state = transitions[state + classes[data[i] & 0xFF]];
+                if (state < 0) return match(data, limit, i, ~state / width);
+            }
+        } else {
+            for (int i = offset; i < limit; i++) {
+                state = next(state, classes[data[i] & 0xFF]);
+                if (matching[state]) return match(data, limit, i, state);
+            }
+        }
+        return NO_MATCH;
+    }
+
+    /**
+     * Resolves match ending at given index.
+     *
+     * @param data data being investigated
+     * @param limit first index not belonging to investigated data region
+     * @param end the index of the last byte of the first pattern found
+     * @param state the state the first pattern was found in
+     * @return match start index in upper 32 bits and matched pattern index in lower 32 bits
+     */
+    private long match(final byte[] data, final int limit, final int end, final int state) {
+        if (!overlapping) {
+            // no pattern is substring of another one, state string is the pattern
+            return (long) (end + 1 - depth[state]) << 32 | output[state];
+        }
+        // leftmost longest match starts within current state string, trie is walked from every candidate start
+        int pattern, s;
+        for (int start = end + 1 - depth[state]; start <= end; start++) {
+            pattern = 0;
+            s = ROOT;
+            for (int i = start; i < limit && (s = child(s, classes[data[i] & 0xFF])) != NONE; i++) {
+                if (output[s] != 0) pattern = output[s];
+            }
+            if (pattern != 0) return (long) start << 32 | pattern;
+        }
+        throw new IllegalStateException();
+    }
+
+    private int next(int state, final int label) {
+        int child;
+        while ((child = child(state, label)) == NONE) {
+            if (state == ROOT) return ROOT;
+            state = fail[state];
+        }
+        return child;
+    }
+
+    private int child(final int state, final int label) {
+        int low = childStart[state], high = childStart[state + 1] - 1, middle;
+        while (low <= high) {
+            middle = (low + high) >>> 1;
+            if (labels[middle] < label) {
+                low = middle + 1;
+            } else if (labels[middle] > label) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Compiles patterns to automaton. Compilation time and memory are linear in total patterns length
+     * except of sorting the patterns.
+     *
+     * @param patterns patterns indexed from <code>one</code>, pattern on index <code>zero</code> is ignored
+     * @param overlapping whether patterns can be substrings of each other
+     * @return compiled automaton
+     * @throws IllegalArgumentException if some pattern is substring of another pattern and overlapping patterns are not allowed
+     */
+    static Automaton compile(final byte[][] patterns, final boolean overlapping) {
+        // compute character classes preserving byte ordering
+        final boolean[] used = new boolean[256];
+        for (int i = 1; i < patterns.length; i++) {
+            for (byte b : patterns[i]) used[b & 0xFF] = true;
+        }
+        final int[] classes = new int[256];
+        int width = 1;
+        for (int b = 0; b < used.length; b++) {
+            if (used[b]) classes[b] = width++;
+        }
+        // build trie from sorted patterns, the child to descend to is always the last child added to the state
+        final Integer[] order = new Integer[patterns.length - 1];
+        int capacity = 1;
+        for (int i = 1; i < patterns.length; i++) {
+            order[i - 1] = i;
+            capacity += patterns[i].length;
+        }
+        Arrays.sort(order, (a, b) -> compare(patterns[a], patterns[b]));
+        final int[] firstChild = new int[capacity];
+        final int[] lastChild = new int[capacity];
+        final int[] nextSibling = new int[capacity];
+        final int[] trieLabels = new int[capacity];
+        final int[] trieOutput = new int[capacity];
+        int states = 1, state, child, label;
+        for (int i : order) {
+            state = ROOT;
+            for (byte b : patterns[i]) {
+                label = classes[b & 0xFF];
+                child = lastChild[state];
+                if (child == ROOT || trieLabels[child] != label) {
+                    child = states++;
+                    trieLabels[child] = label;
+                    if (lastChild[state] == ROOT) {
+                        firstChild[state] = child;
+                    } else {
+                        nextSibling[lastChild[state]] = child;
+                    }
+                    lastChild[state] = child;
+                }
+                state = child;
+            }
+            trieOutput[state] = i;
+        }
+        // renumber states breadth first so children of every state are adjacent
+        final int[] childStart = new int[states + 1];
+        final int[] labels = new int[states];
+        final int[] depth = new int[states];
+        final int[] output = new int[states];
+        final int[] queue = new int[states];
+        int head = 0, tail = 1;
+        for (state = ROOT; head < tail; state++) {
+            final int trieState = queue[head++];
+            childStart[state] = tail;
+            for (child = firstChild[trieState]; child != ROOT; child = nextSibling[child]) {
+                labels[tail] = trieLabels[child];
+                depth[tail] = depth[state] + 1;
+                output[tail] = trieOutput[child];
+                queue[tail++] = child;
+            }
+        }
+        childStart[states] = states;
+        // resolve failure links breadth first
+        final int[] fail = new int[states];
+        final boolean[] matching = new boolean[states];
+        final Automaton automaton = new Automaton(classes, width, null, childStart, labels, fail, depth, output, matching, overlapping,
+                commonPrefix(patterns), leadingBytes(patterns));
+        for (state = ROOT; state < states; state++) {
+            for (child = childStart[state]; child < childStart[state + 1]; child++) {
+                fail[child] = state == ROOT ? ROOT : automaton.next(fail[state], labels[child]);
+                matching[child] = output[child] != 0 || matching[fail[child]];
+            }
+        }
+        if (!overlapping) checkOverlaps(automaton, patterns);
+        if ((long) states * width > MAX_DENSE_TRANSITIONS) return automaton;
+        // compile deterministic transition table, failure state rows precede rows of their states
+        final int[] transitions = new int[states * width];
+        int row;
+        for (state = ROOT; state < states; state++) {
+            row = state * width;
+            if (state == ROOT) {
+                Arrays.fill(transitions, 0, width, ROOT);
+            } else {
+                System.arraycopy(transitions, fail[state] * width, transitions, row, width);
+            }
+            for (child = childStart[state]; child < childStart[state + 1]; child++) {
+                transitions[row + labels[child]] = matching[child] ? ~(child * width) : child * width;
+            }
+        }
+        return new Automaton(classes, width, transitions, childStart, labels, fail, depth, output, matching, overlapping,
+                automaton.prefix, automaton.leadingBytes);
+    }
+
+    /**
+     * Writes compiled automaton to transformer snapshot. Character classes, trie, failure links and transition table
+     * are written, state string lengths, matching flags and fast rejection data are recomputed on load.
+     *
+     * @param dos snapshot stream
+     * @throws IOException if some I/O error occurs
+     */
+    void write(final DataOutputStream dos) throws IOException {
+        dos.writeBoolean(overlapping);
+        writeInts(dos, classes);
+        writeInts(dos, childStart);
+        writeInts(dos, labels);
+        writeInts(dos, fail);
+        writeInts(dos, output);
+        writeInts(dos, transitions != null ? transitions : new int[0]);
+    }
+
+    /**
+     * Reads automaton from transformer snapshot. Every array index the automaton will ever use is validated
+     * and the trie is verified to be exactly the trie of given patterns.
+     *
+     * @param buffer snapshot buffer positioned at the automaton
+     * @param patterns patterns indexed from <code>one</code> the automaton was compiled from
+     * @return automaton
+     * @throws IOException if snapshot is corrupted
+     */
+    static Automaton read(final ByteBuffer buffer, final byte[][] patterns) throws IOException {
+        final boolean overlapping = buffer.get() != 0;
+        final int[] classes = readInts(buffer);
+        final int[] childStart = readInts(buffer);
+        final int[] labels = readInts(buffer);
+        final int[] fail = readInts(buffer);
+        final int[] output = readInts(buffer);
+        final int[] transitions = readInts(buffer);
+        check(classes.length == 256);
+        int width = 1;
+        for (int c : classes) {
+            check(c >= 0 && c <= 256);
+            width = Math.max(width, c + 1);
+        }
+        // children ranges must be adjacent and cover every state but root exactly once
+        final int states = labels.length;
+        check(states > 1 && childStart.length == states + 1 && fail.length == states && output.length == states);
+        check(childStart[ROOT] == ROOT + 1 && childStart[states] == states && output[ROOT] == 0);
+        final int[] depth = new int[states];
+        final boolean[] matching = new boolean[states];
+        int patternEnds = 0, child;
+        for (int state = ROOT; state < states; state++) {
+            check(childStart[state] > state && childStart[state] <= childStart[state + 1] && childStart[state + 1] <= states);
+            check(output[state] >= 0 && output[state] < patterns.length);
+            // leaves are always pattern ends
+            check(output[state] != 0 || state == ROOT || childStart[state] < childStart[state + 1]);
+            if (output[state] != 0) patternEnds++;
+            for (child = childStart[state]; child < childStart[state + 1]; child++) {
+                check(labels[child] > 0 && labels[child] < width);
+                check(child == childStart[state] || labels[child - 1] < labels[child]);
+                check(fail[child] >= ROOT && fail[child] < child);
+                depth[child] = depth[state] + 1;
+                matching[child] = output[child] != 0 || matching[fail[child]];
+            }
+        }
+        check(patternEnds == patterns.length - 1);
+        final Automaton automaton = new Automaton(classes, width, transitions.length == 0 ? null : transitions, childStart, labels,
+                fail, depth, output, matching, overlapping, commonPrefix(patterns), leadingBytes(patterns));
+        for (int i = 1; i < patterns.length; i++) {
+            child = ROOT;
+            for (byte b : patterns[i]) {
+                child = automaton.child(child, classes[b & 0xFF]);
+                check(child != NONE);
+            }
+            check(output[child] == i);
+        }
+        if (!overlapping) checkOverlaps(automaton, patterns);
+        if (transitions.length == 0) return automaton;
+        check((long) states * width == transitions.length);
+        // transitions must lead to row offsets and be complemented exactly for matching states, bit sets avoid divisions
+        final long[] rows = new long[(transitions.length >>> 6) + 1];
+        final long[] matchingRows = new long[rows.length];
+        for (int state = ROOT, row = 0; state < states; state++, row += width) {
+            rows[row >>> 6] |= 1L << row;
+            if (matching[state]) matchingRows[row >>> 6] |= 1L << row;
+        }
+        int target;
+        for (int transition : transitions) {
+            target = transition < 0 ? ~transition : transition;
+            check(target < transitions.length && (rows[target >>> 6] & 1L << target) != 0
+                    && transition < 0 == ((matchingRows[target >>> 6] & 1L << target) != 0));
+        }
+        return automaton;
+    }
+
+    /**
+     * Detects pattern which is substring of another pattern. Such pattern ends either in state being proper prefix
+     * of another pattern or in failure state of another pattern.
+     *
+     * @throws IllegalArgumentException if overlapping patterns were found
+     */
+    private static void checkOverlaps(final Automaton automaton, final byte[][] patterns) {
+        int container, contained;
+        boolean inner;
+        for (int state = ROOT + 1; state < automaton.labels.length; state++) {
+            inner = automaton.childStart[state] < automaton.childStart[state + 1];
+            if (!(inner ? automaton.matching[state] : automaton.matching[automaton.fail[state]])) continue;
+            container = state;
+            if (inner) {
+                // leaves are always pattern ends
+                do {
+                    container = automaton.childStart[container];
+                } while (automaton.output[container] == 0);
+            }
+            contained = inner ? state : automaton.fail[state];
+            while (automaton.output[contained] == 0) {
+                contained = automaton.fail[contained];
+            }
+            throw new IllegalArgumentException("Mapping " + toString(patterns[automaton.output[container]]) + " overlaps mapping " + toString(patterns[automaton.output[contained]]));
+        }
+    }
+
+    private static byte[] commonPrefix(final byte[][] patterns) {
+        int prefixLength = patterns[1].length;
+        for (int i = 1; i < patterns.length; i++) {
+            prefixLength = Math.min(prefixLength, patterns[i].length);
+            for (int j = 0; j < prefixLength; j++) {
+                if (patterns[i][j] != patterns[1][j]) {
+                    prefixLength = j;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(patterns[1], prefixLength);
+    }
+
+    private static boolean[] leadingBytes(final byte[][] patterns) {
+        final boolean[] retVal = new boolean[256];
+        for (int i = 1; i < patterns.length; i++) {
+            retVal[patterns[i][0] & 0xFF] = true;
+        }
+        return retVal;
+    }
+
+    private static int compare(final byte[] a, final byte[] b) {
+        final int length = Math.min(a.length, b.length);
+        int diff;
+        for (int i = 0; i < length; i++) {
+            diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+        return a.length - b.length;
+    }
+
+    private static String toString(final byte[] pattern) {
+        return new String(pattern, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-memory cache of class transformation results. Identical class byte code loaded by many class loaders
+ * is transformed only once, repeated loads cost single pass hash computation. Both modified class byte code and
+ * the information class byte code was not modified are cached. Cache keys are 128-bit hashes of class byte code
+ * combined with its length, original class byte code is not retained.
+ * The cache is split into independently locked segments, least recently used entries of a segment are evicted
+ * once the segment size exceeds its share of the cache limit. Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ClassCache {
+
+    private static final int SEGMENTS = 16;
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final byte[] UNCHANGED = new byte[0];
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long segmentLimit;
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param limit maximum cache size in bytes
+     */
+    ClassCache(final long limit) {
+        segmentLimit = limit / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Returns cached transformation result.
+     *
+     * @param clazz class byte code
+     * @return cached modified class byte code, <code>clazz</code> if it was not modified or <code>null</code> if there is no cached result
+     */
+    byte[] get(final byte[] clazz) {
+        final Key key = new Key(clazz);
+        final byte[] retVal = segment(key).get(key);
+        if (retVal == null) return null;
+        hits.increment();
+        return retVal == UNCHANGED ? clazz : retVal;
+    }
+
+    /**
+     * Stores transformation result. Returned arrays are shared by all callers, they must not be modified.
+     *
+     * @param clazz class byte code
+     * @param result either modified class byte code or <code>clazz</code> if it was not modified
+     */
+    void put(final byte[] clazz, final byte[] result) {
+        final Key key = new Key(clazz);
+        segment(key).put(key, result == clazz ? UNCHANGED : result);
+    }
+
+    /**
+     * Returns count of transformations served from this cache.
+     *
+     * @return count of cache hits
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    private Segment segment(final Key key) {
+        return segments[(int) (key.hash1 >>> 32) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Least recently used ordered part of the cache.
+     */
+    private final class Segment {
+        private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        private synchronized byte[] get(final Key key) {
+            return entries.get(key);
+        }
+
+        private synchronized void put(final Key key, final byte[] result) {
+            final long entrySize = ENTRY_OVERHEAD + result.length;
+            if (entrySize > segmentLimit) return;
+            final byte[] previous = entries.put(key, result);
+            size += entrySize - (previous != null ? ENTRY_OVERHEAD + previous.length : 0);
+            Map.Entry<Key, byte[]> eldest;
+            for (Iterator<Map.Entry<Key, byte[]>> i = entries.entrySet().iterator(); size > segmentLimit; ) {
+                eldest = i.next();
+                size -= ENTRY_OVERHEAD + eldest.getValue().length;
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Class byte code identity. Two independently mixed 64-bit lanes make accidental collision of different class byte code
+     * of the same length negligible.
+     */
+    private static final class Key {
+        private final long hash1;
+        private final long hash2;
+        private final int length;
+
+        private Key(final byte[] clazz) {
+            final ByteBuffer buffer = ByteBuffer.wrap(clazz);
+            final int wordsLimit = clazz.length & ~7;
+            long hash1 = PRIME3, hash2 = PRIME4, word;
+            int i = 0;
+            for (; i < wordsLimit; i += 8) {
+                word = buffer.getLong(i);
+                hash1 = Long.rotateLeft(hash1 + word * PRIME2, 31) * PRIME1;
+                hash2 = Long.rotateLeft(hash2 ^ word * PRIME1, 29) * PRIME2;
+            }
+            for (; i < clazz.length; i++) {
+                hash1 = Long.rotateLeft(hash1 ^ (clazz[i] & 0xFF) * PRIME1, 11) * PRIME2;
+                hash2 = Long.rotateLeft(hash2 + (clazz[i] & 0xFF) * PRIME2, 13) * PRIME1;
+            }
+            this.hash1 = avalanche(hash1 ^ clazz.length);
+            this.hash2 = avalanche(hash2 + clazz.length);
+            this.length = clazz.length;
+        }
+
+        private static long avalanche(long hash) {
+            hash ^= hash >>> 33;
+            hash *= PRIME2;
+            hash ^= hash >>> 29;
+            hash *= PRIME3;
+            return hash ^ hash >>> 32;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) hash1;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return hash1 == other.hash1 && hash2 == other.hash2 && length == other.length;
+        }
+    }
+
+}
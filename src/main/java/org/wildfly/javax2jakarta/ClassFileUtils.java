@@ -146,9 +146,22 @@ final class ClassFileUtils {
      * @return array of constant pool item pointers
      */
     static int[] getConstantPool(final byte[] clazz) {
-        final int constantPoolSize = readUnsignedShort(clazz, POOL_SIZE_INDEX);
+        return getConstantPool(clazz, 0);
+    }
+
+    /**
+     * Returns pointers to the <code>class constant pool items</code> indexed from 1 till end of array.
+     * Pointers are indices inside the array holding the class.
+     *
+     * @param clazz array holding the class to create array of constant pool item pointers for
+     * @param offset the index of the first class byte inside the array
+     * @return array of constant pool item pointers
+     * @see #getConstantPool(byte[])
+     */
+    static int[] getConstantPool(final byte[] clazz, final int offset) {
+        final int constantPoolSize = readUnsignedShort(clazz, offset + POOL_SIZE_INDEX);
         final int[] retVal = new int[constantPoolSize];
-        int position = POOL_CONTENT_INDEX;
+        int position = offset + POOL_CONTENT_INDEX;
         byte tag;
         int utf8Length;
 
@@ -176,6 +189,21 @@ final class ClassFileUtils {
         return retVal;
     }
 
+    /**
+     * Returns internal name of the class.
+     *
+     * @param clazz array holding the class
+     * @param constantPool constant pool item pointers of the class
+     * @return internal class name
+     * @see #getConstantPool(byte[], int)
+     */
+    static String getClassName(final byte[] clazz, final int[] constantPool) {
+        final int thisClassPoolIndex = readUnsignedShort(clazz, constantPool[0] + 2);
+        final int thisClassUtf8Position = constantPool[readUnsignedShort(clazz, constantPool[thisClassPoolIndex] + 1)];
+        final int thisClassUtf8Length = readUnsignedShort(clazz, thisClassUtf8Position + 1);
+        return utf8ToString(clazz, thisClassUtf8Position + 3, thisClassUtf8Position + thisClassUtf8Length + 3);
+    }
+
     /**
      * Decodes modified UTF-8 to string.
      *
@@ -230,24 +258,6 @@ final class ClassFileUtils {
         return retVal;
     }
 
-    /**
-     * Counts how many <code>CONSTANT_Utf8_info</code> structures are present in the class constant pool.
-     *
-     * @param clazz class bytes
-     * @param constantPool pointers to class constant pool
-     * @return <code>CONSTANT_Utf8_info</code> structures count in class constant pool
-     */
-    static int countUtf8Items(final byte[] clazz, final int[] constantPool) {
-        int retVal = 0;
-
-        for (int i = 1; i < constantPool.length; i++) {
-            if (constantPool[i] == 0) continue;
-            if (UTF8 == clazz[constantPool[i]]) retVal++;
-        }
-
-        return retVal;
-    }
-
     /**
      * Counts size for modified UTF-8 encoding.
      *
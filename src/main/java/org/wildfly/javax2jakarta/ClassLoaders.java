@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+/**
+ * Class loader utilities.
+ * This variant is used on Java 8, multi-release archive contains Java 9+ variant using platform class loader API.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ClassLoaders {
+
+    /**
+     * Constructor.
+     */
+    private ClassLoaders() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Returns extension class loader. It is the class loader whose parent is bootstrap class loader,
+     * it need not be the parent of system class loader if custom system class loader is configured.
+     *
+     * @return extension class loader or <code>null</code> if there is none
+     */
+    static ClassLoader getPlatformClassLoader() {
+        ClassLoader retVal = ClassLoader.getSystemClassLoader();
+        while (retVal != null && retVal.getParent() != null) {
+            retVal = retVal.getParent();
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+/**
+ * Flight recorder event of class file transformation.
+ * This variant records nothing, it is used on Java 8 which lacks flight recorder API.
+ * Multi-release archive contains Java 11 variant which extends <code>jdk.jfr.Event</code>.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ClassTransformedEvent {
+
+    String className;
+    int inputSize;
+    int outputSize;
+    int matches;
+
+    void begin() {
+        // flight recorder is not available
+    }
+
+    void end() {
+        // flight recorder is not available
+    }
+
+    boolean shouldCommit() {
+        return false;
+    }
+
+    void commit() {
+        // flight recorder is not available
+    }
+
+}
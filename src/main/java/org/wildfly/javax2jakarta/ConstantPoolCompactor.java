@@ -0,0 +1,611 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static java.lang.System.arraycopy;
+import static org.wildfly.javax2jakarta.ClassFileUtils.*;
+
+import java.util.Arrays;
+
+/**
+ * Removes duplicate <code>constant pool</code> items from class byte code. Duplicates typically appear after mapping
+ * was applied to classes referencing both original and mapped names, e.g. bridges or adapters.
+ * <p>
+ * Items are deduplicated in dependency order, i.e. <code>CONSTANT_Utf8_info</code> structures first, then items
+ * referencing them and so on, so every duplicate is detected by single hash table lookup. References to removed items
+ * are rewritten in fields, methods, attributes and byte code. Every item is moved to lower or the same index, hence
+ * instructions with single byte <code>constant pool</code> index operand still fit and byte code length never changes.
+ * Classes with attributes unknown to this compactor are left intact as such attributes might reference
+ * <code>constant pool</code> items too.
+ * </p>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ConstantPoolCompactor {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int SAME_FRAME_MAX = 63;
+    private static final int SAME_LOCALS_1_STACK_ITEM_MAX = 127;
+    private static final int SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247;
+    private static final int SAME_FRAME_EXTENDED = 251;
+    private static final int FULL_FRAME = 255;
+    private static final int ITEM_OBJECT = 7;
+    private static final int ITEM_UNINITIALIZED = 8;
+    private static final int LDC = 18;
+    private static final int TABLESWITCH = 170;
+    private static final int LOOKUPSWITCH = 171;
+    private static final int WIDE = 196;
+    private static final int IINC = 132;
+    /**
+     * Instruction lengths indexed by opcode. Zero represents variable length or invalid instruction.
+     */
+    private static final byte[] INSTRUCTION_LENGTHS = new byte[256];
+    /**
+     * Instructions having two bytes <code>constant pool</code> index operand right after the opcode.
+     */
+    private static final boolean[] CONSTANT_POOL_INSTRUCTIONS = new boolean[256];
+
+    static {
+        Arrays.fill(INSTRUCTION_LENGTHS, 0, 202, (byte) 1);
+        for (int opcode : new int[] {16, 18, 21, 22, 23, 24, 25, 54, 55, 56, 57, 58, 169, 188}) INSTRUCTION_LENGTHS[opcode] = 2;
+        for (int opcode : new int[] {17, 19, 20, 132, 178, 179, 180, 181, 182, 183, 184, 187, 189, 192, 193, 198, 199}) INSTRUCTION_LENGTHS[opcode] = 3;
+        for (int opcode = 153; opcode <= 168; opcode++) INSTRUCTION_LENGTHS[opcode] = 3;
+        for (int opcode : new int[] {185, 186, 200, 201}) INSTRUCTION_LENGTHS[opcode] = 5;
+        INSTRUCTION_LENGTHS[197] = 4;
+        INSTRUCTION_LENGTHS[TABLESWITCH] = 0;
+        INSTRUCTION_LENGTHS[LOOKUPSWITCH] = 0;
+        INSTRUCTION_LENGTHS[WIDE] = 0;
+        for (int opcode : new int[] {19, 20, 178, 179, 180, 181, 182, 183, 184, 185, 186, 187, 189, 192, 193, 197}) CONSTANT_POOL_INSTRUCTIONS[opcode] = true;
+    }
+
+    private final byte[] clazz;
+    private final int limit;
+    private final int[] constantPool;
+    private final int[] remap;
+    /**
+     * Positions of <code>constant pool</code> indices outside of <code>constant pool</code>.
+     * Positions of single byte indices are stored negated.
+     */
+    private int[] references = new int[INITIAL_CAPACITY];
+    private int referencesSize;
+
+    private ConstantPoolCompactor(final byte[] clazz, final int offset, final int limit) {
+        this.clazz = clazz;
+        this.limit = limit;
+        this.constantPool = getConstantPool(clazz, offset);
+        this.remap = new int[constantPool.length];
+    }
+
+    /**
+     * Removes duplicate <code>constant pool</code> items from class byte code in place.
+     *
+     * @param clazz array holding class byte code
+     * @param offset the index of the first class byte code byte inside the array
+     * @param length count of class byte code bytes
+     * @return count of compacted class byte code bytes, equal to <code>length</code> if class was not compacted
+     */
+    static int compact(final byte[] clazz, final int offset, final int length) {
+        final ConstantPoolCompactor compactor = new ConstantPoolCompactor(clazz, offset, offset + length);
+        final int newPoolSize = compactor.deduplicate();
+        if (newPoolSize == compactor.constantPool.length) return length;
+        try {
+            compactor.collectReferences();
+        } catch (final UnsupportedStructureException | IndexOutOfBoundsException e) {
+            return length;
+        }
+        return compactor.rewrite(offset, newPoolSize) - offset;
+    }
+
+    /**
+     * Detects duplicate <code>constant pool</code> items and computes their new indices.
+     *
+     * @return new <code>constant pool</code> count
+     */
+    private int deduplicate() {
+        final int[] canonical = remap;
+        final int capacity = Integer.highestOneBit(Math.max(constantPool.length, 2) * 2) * 2;
+        final int[] table = new int[capacity];
+        final int[] hashes = new int[capacity];
+        final int mask = capacity - 1;
+        boolean duplicates = false;
+        int position, slot, hash, itemTier, maxTier = 0;
+
+        for (int tier = 0; tier <= maxTier; tier++) {
+            for (int i = 1; i < constantPool.length; i++) {
+                position = constantPool[i];
+                if (position == 0) continue;
+                itemTier = tier(clazz[position]);
+                if (itemTier != tier) {
+                    if (itemTier > maxTier) maxTier = itemTier;
+                    continue;
+                }
+                hash = hash(position, canonical);
+                for (slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                    if (hashes[slot] == hash && equal(constantPool[table[slot]], position, canonical)) break;
+                }
+                if (table[slot] == 0) {
+                    table[slot] = i;
+                    hashes[slot] = hash;
+                    canonical[i] = i;
+                } else {
+                    canonical[i] = table[slot];
+                    duplicates = true;
+                }
+            }
+        }
+        if (!duplicates) return constantPool.length;
+        // canonical item always precedes its duplicates so canonical indices can be replaced with new indices in place
+        int newIndex = 1;
+        for (int i = 1; i < constantPool.length; i++) {
+            position = constantPool[i];
+            if (position == 0) continue;
+            if (canonical[i] == i) {
+                canonical[i] = newIndex;
+                newIndex += clazz[position] == LONG || clazz[position] == DOUBLE ? 2 : 1;
+            } else {
+                canonical[i] = canonical[canonical[i]];
+            }
+        }
+        return newIndex;
+    }
+
+    /**
+     * Returns dependency tier of <code>constant pool</code> item. Items reference only items of lower tiers.
+     */
+    private static int tier(final byte tag) {
+        switch (tag) {
+            case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE: case NAME_AND_TYPE:
+                return 1;
+            case FIELD_REF: case METHOD_REF: case INTERFACE_METHOD_REF: case DYNAMIC: case INVOKE_DYNAMIC:
+                return 2;
+            case METHOD_HANDLE:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns bit mask of <code>constant pool</code> item byte offsets where references to other items start.
+     */
+    private static int referencesMask(final byte tag) {
+        switch (tag) {
+            case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE:
+                return 1 << 1;
+            case NAME_AND_TYPE: case FIELD_REF: case METHOD_REF: case INTERFACE_METHOD_REF:
+                return 1 << 1 | 1 << 3;
+            case DYNAMIC: case INVOKE_DYNAMIC:
+                return 1 << 3;
+            case METHOD_HANDLE:
+                return 1 << 2;
+            default:
+                return 0;
+        }
+    }
+
+    private static int itemSize(final byte[] clazz, final int position) {
+        switch (clazz[position]) {
+            case UTF8:
+                return 3 + readUnsignedShort(clazz, position + 1);
+            case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE:
+                return 3;
+            case LONG: case DOUBLE:
+                return 9;
+            case METHOD_HANDLE:
+                return 4;
+            default:
+                return 5;
+        }
+    }
+
+    private int hash(final int position, final int[] canonical) {
+        final int mask = referencesMask(clazz[position]);
+        final int size = itemSize(clazz, position);
+        int retVal = 0;
+        if (mask == 0) {
+            for (int i = position; i < position + size; i++) retVal = 31 * retVal + clazz[i];
+        } else {
+            for (int i = 0; i < size; i++) {
+                if ((mask & 1 << i) != 0) {
+                    retVal = 31 * retVal + canonical[readUnsignedShort(clazz, position + i++)];
+                } else {
+                    retVal = 31 * retVal + clazz[position + i];
+                }
+            }
+        }
+        return retVal ^ retVal >>> 16;
+    }
+
+    private boolean equal(final int position1, final int position2, final int[] canonical) {
+        if (clazz[position1] != clazz[position2]) return false;
+        final int mask = referencesMask(clazz[position1]);
+        final int size = itemSize(clazz, position1);
+        if (size != itemSize(clazz, position2)) return false;
+        for (int i = 0; i < size; i++) {
+            if ((mask & 1 << i) != 0) {
+                if (canonical[readUnsignedShort(clazz, position1 + i)] != canonical[readUnsignedShort(clazz, position2 + i)]) return false;
+                i++;
+            } else if (clazz[position1 + i] != clazz[position2 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records positions of all <code>constant pool</code> indices following the <code>constant pool</code>.
+     *
+     * @throws UnsupportedStructureException if class contains structures unknown to this compactor
+     */
+    private void collectReferences() throws UnsupportedStructureException {
+        int position = constantPool[0] + 2;
+        addReference(position);
+        addReference(position + 2);
+        int count = readUnsignedShort(clazz, position + 4);
+        position += 6;
+        for (int i = 0; i < count; i++, position += 2) addReference(position);
+        for (int members = 0; members < 2; members++) {
+            count = readUnsignedShort(clazz, position);
+            position += 2;
+            for (int i = 0; i < count; i++) {
+                addReference(position + 2);
+                addReference(position + 4);
+                position = attributes(position + 6);
+            }
+        }
+        if (attributes(position) != limit) throw new UnsupportedStructureException();
+    }
+
+    private int attributes(int position) throws UnsupportedStructureException {
+        final int count = readUnsignedShort(clazz, position);
+        position += 2;
+        int end;
+        for (int i = 0; i < count; i++, position = end) {
+            addReference(position);
+            end = position + 6 + readInt(position + 2);
+            if (end < position + 6 || end > limit || attribute(readUnsignedShort(clazz, position), position + 6) != end) {
+                throw new UnsupportedStructureException();
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Records <code>constant pool</code> indices inside attribute.
+     *
+     * @param nameIndex attribute name index
+     * @param position the index of the first attribute info byte
+     * @return the index following the last attribute info byte
+     * @throws UnsupportedStructureException if attribute is unknown
+     */
+    private int attribute(final int nameIndex, int position) throws UnsupportedStructureException {
+        final int namePosition = constantPool[nameIndex];
+        if (clazz[namePosition] != UTF8) throw new UnsupportedStructureException();
+        final String name = utf8ToString(clazz, namePosition + 3, namePosition + 3 + readUnsignedShort(clazz, namePosition + 1));
+        int count;
+        switch (name) {
+            case "Code":
+                return code(position);
+            case "ConstantValue": case "Signature": case "SourceFile": case "NestHost": case "ModuleMainClass": case "ModuleTarget":
+                addReference(position);
+                return position + 2;
+            case "Exceptions": case "NestMembers": case "PermittedSubclasses": case "ModulePackages":
+                return references(position);
+            case "Synthetic": case "Deprecated": case "SourceDebugExtension": case "LineNumberTable": case "ModuleResolution":
+                return position + readInt(position - 4);
+            case "InnerClasses":
+                count = readUnsignedShort(clazz, position);
+                position += 2;
+                for (int i = 0; i < count; i++, position += 8) {
+                    addReference(position);
+                    addReference(position + 2);
+                    addReference(position + 4);
+                }
+                return position;
+            case "EnclosingMethod":
+                addReference(position);
+                addReference(position + 2);
+                return position + 4;
+            case "LocalVariableTable": case "LocalVariableTypeTable":
+                count = readUnsignedShort(clazz, position);
+                position += 2;
+                for (int i = 0; i < count; i++, position += 10) {
+                    addReference(position + 4);
+                    addReference(position + 6);
+                }
+                return position;
+            case "StackMapTable":
+                return stackMapTable(position);
+            case "BootstrapMethods":
+                count = readUnsignedShort(clazz, position);
+                position += 2;
+                for (int i = 0; i < count; i++) {
+                    addReference(position);
+                    position = references(position + 2);
+                }
+                return position;
+            case "MethodParameters":
+                count = clazz[position++] & 0xFF;
+                for (int i = 0; i < count; i++, position += 4) addReference(position);
+                return position;
+            case "RuntimeVisibleAnnotations": case "RuntimeInvisibleAnnotations":
+                count = readUnsignedShort(clazz, position);
+                position += 2;
+                for (int i = 0; i < count; i++) position = annotation(position);
+                return position;
+            case "RuntimeVisibleParameterAnnotations": case "RuntimeInvisibleParameterAnnotations":
+                final int parameters = clazz[position++] & 0xFF;
+                for (int parameter = 0; parameter < parameters; parameter++) {
+                    count = readUnsignedShort(clazz, position);
+                    position += 2;
+                    for (int i = 0; i < count; i++) position = annotation(position);
+                }
+                return position;
+            case "RuntimeVisibleTypeAnnotations": case "RuntimeInvisibleTypeAnnotations":
+                count = readUnsignedShort(clazz, position);
+                position += 2;
+                for (int i = 0; i < count; i++) position = typeAnnotation(position);
+                return position;
+            case "AnnotationDefault":
+                return elementValue(position);
+            case "Record":
+                count = readUnsignedShort(clazz, position);
+                position += 2;
+                for (int i = 0; i < count; i++) {
+                    addReference(position);
+                    addReference(position + 2);
+                    position = attributes(position + 4);
+                }
+                return position;
+            case "Module":
+                return module(position);
+            case "ModuleHashes":
+                addReference(position);
+                count = readUnsignedShort(clazz, position + 2);
+                position += 4;
+                for (int i = 0; i < count; i++) {
+                    addReference(position);
+                    position += 4 + readUnsignedShort(clazz, position + 2);
+                }
+                return position;
+            default:
+                throw new UnsupportedStructureException();
+        }
+    }
+
+    private int references(int position) {
+        final int count = readUnsignedShort(clazz, position);
+        position += 2;
+        for (int i = 0; i < count; i++, position += 2) addReference(position);
+        return position;
+    }
+
+    private int code(int position) throws UnsupportedStructureException {
+        final int codeStart = position + 8;
+        final int codeEnd = codeStart + readInt(position + 4);
+        if (codeEnd < codeStart || codeEnd > limit) throw new UnsupportedStructureException();
+        int opcode, length;
+        for (position = codeStart; position < codeEnd; position += length) {
+            opcode = clazz[position] & 0xFF;
+            length = INSTRUCTION_LENGTHS[opcode];
+            if (opcode == LDC) {
+                addReference(-(position + 1));
+            } else if (CONSTANT_POOL_INSTRUCTIONS[opcode]) {
+                addReference(position + 1);
+            } else if (opcode == TABLESWITCH) {
+                final int padded = position + 4 - (position - codeStart) % 4;
+                length = padded - position + 12 + 4 * (readInt(padded + 8) - readInt(padded + 4) + 1);
+            } else if (opcode == LOOKUPSWITCH) {
+                final int padded = position + 4 - (position - codeStart) % 4;
+                length = padded - position + 8 + 8 * readInt(padded + 4);
+            } else if (opcode == WIDE) {
+                length = (clazz[position + 1] & 0xFF) == IINC ? 6 : 4;
+            }
+            if (length <= 0) throw new UnsupportedStructureException();
+        }
+        if (position != codeEnd) throw new UnsupportedStructureException();
+        final int count = readUnsignedShort(clazz, position);
+        position += 2;
+        for (int i = 0; i < count; i++, position += 8) addReference(position + 6);
+        return attributes(position);
+    }
+
+    private int stackMapTable(int position) throws UnsupportedStructureException {
+        final int count = readUnsignedShort(clazz, position);
+        position += 2;
+        int frameType;
+        for (int i = 0; i < count; i++) {
+            frameType = clazz[position++] & 0xFF;
+            if (frameType <= SAME_FRAME_MAX) {
+                continue;
+            } else if (frameType <= SAME_LOCALS_1_STACK_ITEM_MAX) {
+                position = verificationTypes(position, 1);
+            } else if (frameType < SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+                throw new UnsupportedStructureException();
+            } else if (frameType == SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+                position = verificationTypes(position + 2, 1);
+            } else if (frameType <= SAME_FRAME_EXTENDED) {
+                position += 2;
+            } else if (frameType < FULL_FRAME) {
+                position = verificationTypes(position + 2, frameType - SAME_FRAME_EXTENDED);
+            } else {
+                position = verificationTypes(position + 4, readUnsignedShort(clazz, position + 2));
+                position = verificationTypes(position + 2, readUnsignedShort(clazz, position));
+            }
+        }
+        return position;
+    }
+
+    private int verificationTypes(int position, final int count) {
+        int tag;
+        for (int i = 0; i < count; i++) {
+            tag = clazz[position++];
+            if (tag == ITEM_OBJECT) {
+                addReference(position);
+                position += 2;
+            } else if (tag == ITEM_UNINITIALIZED) {
+                position += 2;
+            }
+        }
+        return position;
+    }
+
+    private int annotation(int position) throws UnsupportedStructureException {
+        addReference(position);
+        final int count = readUnsignedShort(clazz, position + 2);
+        position += 4;
+        for (int i = 0; i < count; i++) {
+            addReference(position);
+            position = elementValue(position + 2);
+        }
+        return position;
+    }
+
+    private int elementValue(int position) throws UnsupportedStructureException {
+        final char tag = (char) clazz[position++];
+        switch (tag) {
+            case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 's': case 'c':
+                addReference(position);
+                return position + 2;
+            case 'e':
+                addReference(position);
+                addReference(position + 2);
+                return position + 4;
+            case '@':
+                return annotation(position);
+            case '[':
+                final int count = readUnsignedShort(clazz, position);
+                position += 2;
+                for (int i = 0; i < count; i++) position = elementValue(position);
+                return position;
+            default:
+                throw new UnsupportedStructureException();
+        }
+    }
+
+    private int typeAnnotation(int position) throws UnsupportedStructureException {
+        final int targetType = clazz[position++] & 0xFF;
+        switch (targetType) {
+            case 0x00: case 0x01: case 0x16:
+                position += 1;
+                break;
+            case 0x10: case 0x11: case 0x12: case 0x17: case 0x42: case 0x43: case 0x44: case 0x45: case 0x46:
+                position += 2;
+                break;
+            case 0x13: case 0x14: case 0x15:
+                break;
+            case 0x40: case 0x41:
+                position += 2 + 6 * readUnsignedShort(clazz, position);
+                break;
+            case 0x47: case 0x48: case 0x49: case 0x4A: case 0x4B:
+                position += 3;
+                break;
+            default:
+                throw new UnsupportedStructureException();
+        }
+        position += 1 + 2 * (clazz[position] & 0xFF);
+        return annotation(position);
+    }
+
+    private int module(int position) {
+        addReference(position);
+        addReference(position + 4);
+        int count = readUnsignedShort(clazz, position + 6);
+        position += 8;
+        for (int i = 0; i < count; i++, position += 6) {
+            addReference(position);
+            addReference(position + 4);
+        }
+        for (int exportsAndOpens = 0; exportsAndOpens < 2; exportsAndOpens++) {
+            count = readUnsignedShort(clazz, position);
+            position += 2;
+            for (int i = 0; i < count; i++) {
+                addReference(position);
+                position = references(position + 4);
+            }
+        }
+        position = references(position);
+        count = readUnsignedShort(clazz, position);
+        position += 2;
+        for (int i = 0; i < count; i++) {
+            addReference(position);
+            position = references(position + 2);
+        }
+        return position;
+    }
+
+    private void addReference(final int position) {
+        if (referencesSize == references.length) references = Arrays.copyOf(references, referencesSize * 2);
+        references[referencesSize++] = position;
+    }
+
+    private int readInt(final int position) {
+        return readUnsignedShort(clazz, position) << 16 | readUnsignedShort(clazz, position + 2);
+    }
+
+    /**
+     * Rewrites recorded references, writes compacted <code>constant pool</code> and moves the rest of the class.
+     *
+     * @param offset the index of the first class byte code byte inside the array
+     * @param newPoolSize new <code>constant pool</code> count
+     * @return first index not belonging to compacted class byte code
+     */
+    private int rewrite(final int offset, final int newPoolSize) {
+        int position;
+        for (int i = 0; i < referencesSize; i++) {
+            position = references[i];
+            if (position < 0) {
+                clazz[-position] = (byte) remap[clazz[-position] & 0xFF];
+            } else {
+                writeUnsignedShort(clazz, position, remap[readUnsignedShort(clazz, position)]);
+            }
+        }
+        writeUnsignedShort(clazz, offset + POOL_SIZE_INDEX, newPoolSize);
+        int newPosition = offset + POOL_CONTENT_INDEX, newIndex = 1, size, mask;
+        for (int i = 1; i < constantPool.length; i++) {
+            position = constantPool[i];
+            if (position == 0 || remap[i] != newIndex) continue;
+            size = itemSize(clazz, position);
+            mask = referencesMask(clazz[position]);
+            arraycopy(clazz, position, clazz, newPosition, size);
+            for (int j = 1; j < size; j++) {
+                if ((mask & 1 << j) != 0) writeUnsignedShort(clazz, newPosition + j, remap[readUnsignedShort(clazz, newPosition + j)]);
+            }
+            newPosition += size;
+            newIndex += clazz[newPosition - size] == LONG || clazz[newPosition - size] == DOUBLE ? 2 : 1;
+        }
+        arraycopy(clazz, constantPool[0], clazz, newPosition, limit - constantPool[0]);
+        return newPosition + limit - constantPool[0];
+    }
+
+    /**
+     * Thrown when class contains structure unknown to this compactor.
+     */
+    private static final class UnsupportedStructureException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private UnsupportedStructureException() {
+            super(null, null, false, false);
+        }
+    }
+
+}
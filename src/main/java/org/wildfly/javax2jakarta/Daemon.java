@@ -0,0 +1,283 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.wildfly.javax2jakarta.IOUtils.safeClose;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long running transformation daemon and its client. Daemon keeps warm, already built transformer
+ * and performs transformations and analyses requested by clients, so they don't pay JVM startup costs.
+ * Daemon listens on loopback interface only. Requests are served concurrently by bounded count of threads.
+ * <p>
+ * Daemon runs with permissions of its owner, so it serves only clients proving they can read random token
+ * the daemon wrote to <code>~/.javax2jakarta/daemon-&lt;port&gt;.token</code> file readable by its owner only.
+ * Request consists of the token, request arguments count and arguments, all strings in modified UTF-8.
+ * Arguments are the same as {@link Main} command line arguments with absolute paths.
+ * Response consists of success flag followed by message in modified UTF-8.
+ * </p>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class Daemon {
+
+    private static final String STOP_REQUEST = "--stop";
+    private static final String TOKEN_DIRECTORY = ".javax2jakarta";
+    private static final String TOKEN_FILE_PREFIX = "daemon-";
+    private static final String TOKEN_FILE_SUFFIX = ".token";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String POSIX_ATTRIBUTES = "posix";
+    private static final String OWNER_ONLY_DIRECTORY = "rwx------";
+    private static final String OWNER_ONLY_FILE = "rw-------";
+    private static final int TOKEN_SIZE = 32;
+    private static final int BACKLOG = 64;
+    private static final int MAX_REQUEST_ARGS = 0xFFFF;
+    private static final int READ_TIMEOUT = 30000;
+
+    private final Transformer transformer;
+    private final ServerSocket server;
+    private final byte[] token;
+    private final Map<File, TransformationCache> caches = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param transformer class file transformer
+     * @param server listening socket
+     * @param token token clients must send with every request
+     */
+    private Daemon(final Transformer transformer, final ServerSocket server, final byte[] token) {
+        this.transformer = transformer;
+        this.server = server;
+        this.token = token;
+    }
+
+    /**
+     * Starts daemon and serves requests until stop request is received. Token file is written before
+     * the first request is accepted and it is removed when the daemon stops.
+     *
+     * @param port local port to listen on
+     * @param transformer class file transformer
+     * @throws IOException if some I/O error occurs
+     */
+    static void serve(final int port, final Transformer transformer) throws IOException {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(BACKLOG));
+        final Path tokenFile = getTokenFile(port);
+        try (ServerSocket server = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress())) {
+            final Daemon daemon = new Daemon(transformer, server, writeToken(tokenFile));
+            if (transformer.getStatistics() != null) transformer.getStatistics().registerMBean();
+            System.out.println("Daemon listening on " + server.getLocalSocketAddress());
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (final SocketException e) {
+                    if (server.isClosed()) break;
+                    throw e;
+                }
+                try {
+                    executor.execute(() -> daemon.handle(socket));
+                } catch (final RejectedExecutionException e) {
+                    System.err.println("Too many pending client requests, closing connection");
+                    safeClose(socket);
+                }
+            }
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(tokenFile);
+        }
+    }
+
+    /**
+     * Sends transformation or analysis request to daemon and prints its response.
+     *
+     * @param port local port daemon listens on
+     * @param args request arguments
+     * @return process exit code
+     * @throws IOException if daemon couldn't be contacted
+     */
+    static int submit(final int port, final String... args) throws IOException {
+        final String token;
+        try {
+            token = new String(Files.readAllBytes(getTokenFile(port)), StandardCharsets.UTF_8);
+        } catch (final NoSuchFileException e) {
+            throw new IOException("Daemon token file " + e.getFile() + " not found, is daemon running on port " + port + "?");
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            os.writeUTF(token);
+            os.writeInt(args.length);
+            for (String arg : args) {
+                os.writeUTF(arg);
+            }
+            os.flush();
+            final DataInputStream is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final boolean success = is.readBoolean();
+            final String message = is.readUTF();
+            if (success) {
+                if (!message.isEmpty()) System.out.println(message);
+                return 0;
+            }
+            System.err.println(message);
+            return 1;
+        }
+    }
+
+    /**
+     * Asks daemon to stop.
+     *
+     * @param port local port daemon listens on
+     * @return process exit code
+     * @throws IOException if daemon couldn't be contacted
+     */
+    static int stop(final int port) throws IOException {
+        return submit(port, STOP_REQUEST);
+    }
+
+    private void handle(final Socket socket) {
+        try {
+            // idle or slow clients must not occupy request threads forever
+            socket.setSoTimeout(READ_TIMEOUT);
+            final DataInputStream is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (!MessageDigest.isEqual(token, is.readUTF().getBytes(StandardCharsets.UTF_8))) {
+                respond(socket, false, "Request rejected, invalid daemon token");
+                return;
+            }
+            final int argsCount = is.readInt();
+            if (argsCount < 0 || argsCount > MAX_REQUEST_ARGS) {
+                respond(socket, false, "Request rejected, invalid arguments count " + argsCount);
+                return;
+            }
+            final String[] args = new String[argsCount];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = is.readUTF();
+            }
+            boolean success = true;
+            String message;
+            if (args.length == 1 && STOP_REQUEST.equals(args[0])) {
+                message = "Daemon stopped";
+                server.close();
+            } else {
+                final long start = System.currentTimeMillis();
+                try {
+                    final String summary = Main.execute(transformer, caches, args);
+                    message = summary != null ? summary : "Done in " + (System.currentTimeMillis() - start) + " ms";
+                } catch (final Exception | Error e) {
+                    success = false;
+                    message = "Request " + String.join(" ", args) + " failed: " + e;
+                }
+            }
+            respond(socket, success, message);
+        } catch (final IOException e) {
+            System.err.println("Couldn't serve client request: " + e);
+        } finally {
+            safeClose(socket);
+        }
+    }
+
+    private static void respond(final Socket socket, final boolean success, final String message) throws IOException {
+        final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        os.writeBoolean(success);
+        os.writeUTF(message);
+        os.flush();
+    }
+
+    private static Path getTokenFile(final int port) {
+        return new File(System.getProperty("user.home"), TOKEN_DIRECTORY).toPath().resolve(TOKEN_FILE_PREFIX + port + TOKEN_FILE_SUFFIX);
+    }
+
+    /**
+     * Writes new random token to file readable by its owner only.
+     *
+     * @param tokenFile token file to create or replace
+     * @return written token
+     * @throws IOException if token file couldn't be written
+     */
+    private static byte[] writeToken(final Path tokenFile) throws IOException {
+        final byte[] randomBytes = new byte[TOKEN_SIZE];
+        new SecureRandom().nextBytes(randomBytes);
+        final StringBuilder sb = new StringBuilder(TOKEN_SIZE * 2);
+        for (byte b : randomBytes) {
+            sb.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        final byte[] retVal = sb.toString().getBytes(StandardCharsets.UTF_8);
+        final boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains(POSIX_ATTRIBUTES);
+        final Path directory = tokenFile.getParent();
+        if (!Files.isDirectory(directory)) {
+            if (posix) {
+                Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(OWNER_ONLY_DIRECTORY)));
+            } else {
+                Files.createDirectories(directory);
+            }
+        }
+        final Path tempFile = posix ? Files.createTempFile(directory, tokenFile.getFileName().toString(), TEMP_FILE_SUFFIX,
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(OWNER_ONLY_FILE)))
+                : Files.createTempFile(directory, tokenFile.getFileName().toString(), TEMP_FILE_SUFFIX);
+        try {
+            if (!posix) {
+                final File file = tempFile.toFile();
+                file.setReadable(false, false);
+                file.setWritable(false, false);
+                file.setReadable(true, true);
+                file.setWritable(true, true);
+            }
+            Files.write(tempFile, retVal);
+            try {
+                Files.move(tempFile, tokenFile, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, tokenFile, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return retVal;
+    }
+
+}
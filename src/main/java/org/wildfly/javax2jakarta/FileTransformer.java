@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Transforms class files, archives and resources stored in files with transformer of the default mapping.
+ * It is the entry point for tools embedding the transformer, e.g. the Maven plugin.
+ * Instances of this class are thread safe. They own threads transforming archive entries, so they must be closed.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class FileTransformer implements Closeable {
+
+    private final Transformer transformer;
+    private final ResourceTransformer resourceTransformer;
+    private final ExecutorService executor;
+    private final ArchiveTransformer archiveTransformer;
+
+    /**
+     * Constructor.
+     *
+     * @param transformer class file transformer
+     * @param incrementalArchives whether unchanged archive entries should be copied without recompression
+     * @param threads count of threads transforming archive entries
+     */
+    private FileTransformer(final Transformer transformer, final boolean incrementalArchives, final int threads) {
+        this.transformer = transformer;
+        this.resourceTransformer = new ResourceTransformer(transformer);
+        this.executor = Executors.newWorkStealingPool(threads);
+        this.archiveTransformer = new ArchiveTransformer(transformer, executor, threads, incrementalArchives, 0);
+    }
+
+    /**
+     * Creates file transformer of the default mapping.
+     *
+     * @param snapshot precompiled transformer snapshot or <code>null</code> to use the bundled one
+     * @param compaction whether to remove duplicate constant pool items from modified classes
+     * @param incrementalArchives whether unchanged archive entries should be copied without recompression, preserving their timestamps
+     * @param threads count of threads transforming archive entries
+     * @return file transformer
+     * @throws IOException if transformer snapshot or mapping configuration couldn't be read
+     */
+    public static FileTransformer create(final File snapshot, final boolean compaction, final boolean incrementalArchives, final int threads) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("Threads count must be positive");
+        return new FileTransformer(Main.getTransformer(false, compaction, snapshot), incrementalArchives, threads);
+    }
+
+    /**
+     * Returns SHA-256 digest of the mapping configuration. Files transformed with different digests may differ.
+     *
+     * @return mapping configuration digest
+     */
+    public byte[] getMappingDigest() {
+        return transformer.getMappingDigest().clone();
+    }
+
+    /**
+     * Returns <code>true</code> if given file is resource, i.e. it must be transformed by {@link #transformResource(File, File)}.
+     *
+     * @param path file path relative to the root directory, using <code>/</code> as separator
+     * @return <code>true</code> if it is a resource, <code>false</code> otherwise
+     */
+    public static boolean isResource(final String path) {
+        return ResourceTransformer.isResource(path);
+    }
+
+    /**
+     * Transforms resource path. Only service provider configuration files are renamed.
+     *
+     * @param path resource path relative to the root directory, using <code>/</code> as separator
+     * @return transformed resource path
+     */
+    public String transformResourcePath(final String path) {
+        return resourceTransformer.transformName(path);
+    }
+
+    /**
+     * Transforms class file or archive, other files are copied.
+     *
+     * @param inFile file to transform
+     * @param outFile file to create
+     * @throws IOException if some I/O error occurs
+     */
+    public void transform(final File inFile, final File outFile) throws IOException {
+        Main.transformFile(transformer, archiveTransformer, inFile, outFile, null);
+    }
+
+    /**
+     * Transforms resource.
+     *
+     * @param inFile resource to transform
+     * @param outFile resource to create
+     * @throws IOException if some I/O error occurs
+     * @see #isResource(String)
+     */
+    public void transformResource(final File inFile, final File outFile) throws IOException {
+        Main.transformResourceFile(resourceTransformer, inFile, outFile);
+    }
+
+    /**
+     * Stops threads transforming archive entries.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Utility class for working with streams and asynchronous I/O tasks.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class IOUtils {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Constructor.
+     */
+    private IOUtils() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Closes given resource ignoring any errors.
+     *
+     * @param c resource to close, can be <code>null</code>
+     */
+    static void safeClose(final Closeable c) {
+        try {
+            if (c != null) c.close();
+        } catch (final Throwable t) {
+            // ignored
+        }
+    }
+
+    /**
+     * Fills given array with stream data.
+     *
+     * @param is stream to read from
+     * @param data array to fill
+     * @param closeStream whether to close the stream
+     * @throws IOException if some I/O error occurs or stream ends prematurely
+     */
+    static void readBytes(final InputStream is, final byte[] data, final boolean closeStream) throws IOException {
+        try {
+            int offset = 0, count;
+            while (offset < data.length) {
+                count = is.read(data, offset, data.length - offset);
+                if (count < 0) throw new EOFException();
+                offset += count;
+            }
+        } finally {
+            if (closeStream) {
+                safeClose(is);
+            }
+        }
+    }
+
+    /**
+     * Reads all remaining stream data. The stream is not closed.
+     *
+     * @param is stream to read from
+     * @return stream data
+     * @throws IOException if some I/O error occurs
+     */
+    static byte[] readAll(final InputStream is) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = is.read(buffer)) != -1) {
+            baos.write(buffer, 0, count);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Waits for asynchronous I/O task result.
+     *
+     * @param task asynchronous task
+     * @param <T> task result type
+     * @return task result
+     * @throws IOException if the task failed with I/O error or the current thread was interrupted
+     */
+    static <T> T await(final Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+}
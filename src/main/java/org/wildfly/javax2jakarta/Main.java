@@ -21,53 +21,363 @@
  */
 package org.wildfly.javax2jakarta;
 
-import java.io.Closeable;
+import static org.wildfly.javax2jakarta.IOUtils.await;
+import static org.wildfly.javax2jakarta.IOUtils.readAll;
+import static org.wildfly.javax2jakarta.IOUtils.readBytes;
+import static org.wildfly.javax2jakarta.IOUtils.safeClose;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.IOException;
-import java.util.Calendar;
-import java.util.Enumeration;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+
+import javax.management.ObjectName;
 
 /**
- * Command line tool for transforming class files or jar files.
+ * Command line tool for transforming class files, archives or directories.
  *
  * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
  */
 public final class Main {
 
     private static final String DEFAULT_CONFIG = "default.mapping";
-    private static final String CLASS_FILE_EXT = ".class";
-    private static final String JAR_FILE_EXT = ".jar";
+    private static final String DEFAULT_SNAPSHOT = "default.snapshot";
+    private static final String CLASS_FILE_EXT = ArchiveTransformer.CLASS_FILE_EXT;
+    private static final String THREADS_OPTION = "--threads=";
+    private static final String CACHE_OPTION = "--cache=";
+    private static final String CACHE_LIMIT_OPTION = "--cache-limit=";
+    private static final String INCREMENTAL_OPTION = "--incremental";
+    private static final String ANALYZE_OPTION = "--analyze";
+    private static final String DAEMON_OPTION = "--daemon=";
+    private static final String CLIENT_OPTION = "--client=";
+    private static final String STOP_OPTION = "--stop";
+    private static final String STREAM_OPTION = "--stream";
+    private static final String IN_FLIGHT_LIMIT_OPTION = "--in-flight-limit=";
+    private static final String BATCH_OPTION = "--batch=";
+    private static final String SNAPSHOT_OPTION = "--snapshot=";
+    private static final String CREATE_SNAPSHOT_OPTION = "--create-snapshot=";
+    private static final String COMPACT_OPTION = "--compact";
+    private static final String INDEX_OPTION = "--index=";
+    private static final String QUERY_OPTION = "--query=";
+    private static final String OPTION_PREFIX = "--";
+    private static final String STANDARD_STREAM = "-";
+    private static final String FILE_PROTOCOL = "file";
+    private static final String GLOB_CHARS = "*?[{";
+    private static final String COMMENT_PREFIX = "#";
+    private static final long DEFAULT_CACHE_LIMIT = 1024;
+    private static final long DEFAULT_IN_FLIGHT_LIMIT = 64;
+    private static final long MEGABYTE = 1024 * 1024;
     private static final char DOT = '.';
     private static final char SEP = '/';
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_PORT = 0xFFFF;
+    private static final int MODE_TRANSFORM = 0;
+    private static final int MODE_CLIENT = 1;
+    private static final int MODE_STOP = 2;
+    private static final int MODE_DAEMON = 3;
+    private static final int MODE_CREATE_SNAPSHOT = 4;
+    private static final int MODE_INDEX = 5;
+    private static final int MODE_QUERY = 6;
 
     public static void main(final String... args) throws IOException {
-        if (!validParameters(args)) {
+        final Options options = Options.parse(args);
+        if (options == null) {
             printUsage();
             System.exit(1);
         }
+        final String[] files = Arrays.copyOfRange(args, options.count, args.length);
+        switch (options.mode) {
+            case MODE_DAEMON:
+                Daemon.serve(options.daemonPort, getTransformer(true, options.compact, options.snapshot));
+                return;
+            case MODE_STOP:
+                System.exit(Daemon.stop(options.clientPort));
+                return;
+            case MODE_CREATE_SNAPSHOT:
+                try (OutputStream os = new FileOutputStream(options.snapshotTarget)) {
+                    buildTransformer(false, false).writeSnapshot(os);
+                }
+                return;
+            case MODE_QUERY:
+                System.err.println(ReferenceIndex.query(options.index, options.query, System.out));
+                return;
+            case MODE_INDEX:
+                updateIndex(options, files);
+                return;
+            default:
+                transform(options, args, files);
+        }
+    }
 
-        final File sourceFile = new File(args[0]);
-        final File targetFile = new File(args[1]);
-        if (sourceFile.getName().endsWith(CLASS_FILE_EXT)) {
-            transformClassFile(sourceFile, targetFile);
-        } else if (sourceFile.getName().endsWith(JAR_FILE_EXT)) {
-            transformJarFile(sourceFile, targetFile);
+    private static void updateIndex(final Options options, final String... sourceNames) throws IOException {
+        final List<File> sources = new ArrayList<>(sourceNames.length);
+        for (String sourceName : sourceNames) {
+            sources.add(new File(sourceName));
+            if (!sources.get(sources.size() - 1).exists()) {
+                System.err.println("Source " + sourceName + " does not exist");
+                System.exit(1);
+            }
         }
+        System.out.println(ReferenceIndex.update(options.index, sources, options.threads));
     }
 
-    private static boolean validParameters(final String... args) {
-        if (args.length != 2) {
-            System.err.println("2 arguments required");
-            return false;
+    private static void transform(final Options options, final String[] args, final String... files) throws IOException {
+        final List<File[]> pairs = getPairs(options, options.mode == MODE_TRANSFORM, files);
+        if (pairs == null) {
+            printUsage();
+            System.exit(1);
+        }
+        if (options.mode == MODE_CLIENT) {
+            System.exit(Daemon.submit(options.clientPort, toDaemonArgs(args, options.count)));
+        }
+
+        final Transformer t = getTransformer(true, options.compact, options.snapshot);
+        final ObjectName statsName = t.getStatistics().registerMBean();
+        // standard output might hold transformed archive
+        final PrintStream out = isStandardStream(pairs.get(0)[1]) ? System.err : System.out;
+        try {
+            final String summary = execute(t, new HashMap<>(), options, pairs);
+            if (summary != null) out.println(summary);
+            out.print(t.getStatistics());
+        } finally {
+            TransformerStats.unregisterMBean(statsName);
+        }
+    }
+
+    /**
+     * Executes transformation or analysis with already built transformer. Used by daemon to serve client requests.
+     * Options affecting transformer creation are rejected unless they match the transformer.
+     *
+     * @param t class file transformer
+     * @param caches persistent caches already opened, indexed by cache directory, guarded by itself
+     * @param args command line arguments
+     * @return analysis summary, batch throughput report or <code>null</code>
+     * @throws IllegalArgumentException if command line arguments are invalid
+     * @throws IOException if some I/O error occurs
+     */
+    static String execute(final Transformer t, final Map<File, TransformationCache> caches, final String... args) throws IOException {
+        final Options options = Options.parse(args);
+        final String[] files = options == null ? null : Arrays.copyOfRange(args, options.count, args.length);
+        final List<File[]> pairs = options == null || options.mode != MODE_TRANSFORM ? null : getPairs(options, false, files);
+        if (pairs == null) {
+            throw new IllegalArgumentException("Invalid arguments " + Arrays.toString(args));
+        }
+        // transformer is already built, options affecting it are honoured only when given to the daemon itself
+        if (options.snapshot != null) {
+            throw new IllegalArgumentException("Option " + SNAPSHOT_OPTION + " must be given when starting the daemon");
+        }
+        if (options.compact != t.isCompactionEnabled()) {
+            throw new IllegalArgumentException("Option " + COMPACT_OPTION + " must be given to both the daemon and its clients or to none of them");
+        }
+        return execute(t, caches, options, pairs);
+    }
+
+    private static String execute(final Transformer t, final Map<File, TransformationCache> caches, final Options options,
+                                  final List<File[]> pairs) throws IOException {
+        for (File[] pair : pairs) {
+            final File parent = pair[1].getAbsoluteFile().getParentFile();
+            if (!isStandardStream(pair[1]) && parent != null) Files.createDirectories(parent.toPath());
+        }
+        if (pairs.size() == 1) {
+            return execute(t, caches, options, pairs.get(0)[0], pairs.get(0)[1]);
+        }
+        return transformBatch(t, getCache(caches, options), options, pairs);
+    }
+
+    private static String execute(final Transformer t, final Map<File, TransformationCache> caches, final Options options,
+                                  final File sourceFile, final File targetFile) throws IOException {
+        final TransformationCache cache = getCache(caches, options);
+        final long inFlightLimit = options.stream ? options.inFlightLimit : 0;
+        if (options.analyze) {
+            return new Analyzer(t, options.threads).analyze(sourceFile, targetFile);
+        } else if (isStandardStream(sourceFile) || isStandardStream(targetFile)) {
+            final ArchiveTransformer archiveTransformer = new ArchiveTransformer(t, options.threads, options.incremental, options.inFlightLimit);
+            archiveTransformer.transform(new BufferedInputStream(isStandardStream(sourceFile) ? System.in : new FileInputStream(sourceFile)),
+                    isStandardStream(targetFile) ? System.out : new FileOutputStream(targetFile));
+        } else if (sourceFile.isDirectory()) {
+            transformDirectory(t, new ArchiveTransformer(t, 1, options.incremental, inFlightLimit), sourceFile, targetFile, options.threads, cache);
+        } else {
+            transformFile(t, new ArchiveTransformer(t, options.threads, options.incremental, inFlightLimit), sourceFile, targetFile, cache);
+        }
+        return null;
+    }
+
+    private static TransformationCache getCache(final Map<File, TransformationCache> caches, final Options options) throws IOException {
+        if (options.cacheDirectory == null) return null;
+        final File cacheDirectory = options.cacheDirectory.getAbsoluteFile();
+        synchronized (caches) {
+            TransformationCache retVal = caches.get(cacheDirectory);
+            if (retVal == null) {
+                retVal = new TransformationCache(cacheDirectory, options.cacheLimit);
+                caches.put(cacheDirectory, retVal);
+            }
+            return retVal;
+        }
+    }
+
+    /**
+     * Converts client command line arguments to daemon request. Client option is removed, paths are made absolute.
+     */
+    private static String[] toDaemonArgs(final String[] args, final int optionsCount) {
+        final List<String> retVal = new ArrayList<>(args.length);
+        for (int i = 0; i < args.length; i++) {
+            if (i >= optionsCount) {
+                retVal.add(new File(args[i]).getAbsolutePath());
+            } else if (args[i].startsWith(CACHE_OPTION)) {
+                retVal.add(CACHE_OPTION + new File(args[i].substring(CACHE_OPTION.length())).getAbsolutePath());
+            } else if (args[i].startsWith(BATCH_OPTION)) {
+                retVal.add(BATCH_OPTION + new File(args[i].substring(BATCH_OPTION.length())).getAbsolutePath());
+            } else if (!args[i].startsWith(CLIENT_OPTION)) {
+                retVal.add(args[i]);
+            }
+        }
+        return retVal.toArray(new String[0]);
+    }
+
+    private static boolean isStandardStream(final File file) {
+        return STANDARD_STREAM.equals(file.getPath());
+    }
+
+    /**
+     * Returns validated source and target pairs given either as arguments, by manifest file or by glob pattern.
+     *
+     * @param options parsed options
+     * @param standardStreams whether standard streams can be used
+     * @param args arguments following options
+     * @return source and target pairs or <code>null</code> if arguments are invalid
+     */
+    private static List<File[]> getPairs(final Options options, final boolean standardStreams, final String... args) {
+        final List<String[]> pairs;
+        if (options.manifest != null) {
+            if (args.length != 0) {
+                System.err.println("Option " + BATCH_OPTION + " cannot be combined with source and target arguments");
+                return null;
+            }
+            pairs = readManifest(options.manifest);
+            if (pairs == null) return null;
+        } else if (args.length == 2 && isGlob(args[0]) && !new File(args[0]).exists()) {
+            pairs = expandGlob(args[0], args[1]);
+            if (pairs == null) return null;
+        } else if (args.length == 0 || args.length % 2 != 0) {
+            System.err.println("Source and target pairs required");
+            return null;
+        } else {
+            pairs = new ArrayList<>(args.length / 2);
+            for (int i = 0; i < args.length; i += 2) {
+                pairs.add(new String[] {args[i], args[i + 1]});
+            }
+        }
+        if (pairs.isEmpty()) {
+            System.err.println("No source to transform");
+            return null;
+        }
+        if (pairs.size() > 1 && options.analyze) {
+            System.err.println("Analysis supports single source only");
+            return null;
+        }
+        final List<File[]> retVal = new ArrayList<>(pairs.size());
+        for (String[] pair : pairs) {
+            if (!validParameters(options, standardStreams && pairs.size() == 1, pair)) return null;
+            retVal.add(new File[] {new File(pair[0]), new File(pair[1])});
+        }
+        return retVal;
+    }
+
+    /**
+     * Reads manifest file listing one source and target pair per line. Source and target are separated by tab,
+     * or by whitespace if line contains no tab. Empty lines and lines starting with <code>#</code> are ignored.
+     * Relative paths are resolved against manifest file directory.
+     */
+    private static List<String[]> readManifest(final File manifest) {
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            System.err.println("Couldn't read manifest " + manifest.getAbsolutePath());
+            return null;
         }
+        final File directory = manifest.getAbsoluteFile().getParentFile();
+        final List<String[]> retVal = new ArrayList<>(lines.size());
+        String[] pair;
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)) continue;
+            pair = line.split(line.indexOf('\t') != -1 ? "\t+" : "\\s+");
+            if (pair.length != 2) {
+                System.err.println("Manifest line must hold source and target: " + line);
+                return null;
+            }
+            for (int i = 0; i < pair.length; i++) {
+                if (!STANDARD_STREAM.equals(pair[i]) && !new File(pair[i]).isAbsolute()) {
+                    pair[i] = new File(directory, pair[i]).getPath();
+                }
+            }
+            retVal.add(pair);
+        }
+        return retVal;
+    }
+
+    private static boolean isGlob(final String arg) {
+        for (int i = 0; i < arg.length(); i++) {
+            if (GLOB_CHARS.indexOf(arg.charAt(i)) != -1) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Expands glob pattern to source and target pairs. Each matching file is transformed to the same relative path
+     * in target directory. The pattern is matched against paths relative to its leading directory without glob characters.
+     */
+    private static List<String[]> expandGlob(final String pattern, final String targetDirectory) {
+        int baseEnd = -1;
+        for (int i = 0; i < pattern.length() && GLOB_CHARS.indexOf(pattern.charAt(i)) == -1; i++) {
+            if (pattern.charAt(i) == SEP || pattern.charAt(i) == File.separatorChar) baseEnd = i;
+        }
+        final Path base = Paths.get(baseEnd < 0 ? "." : pattern.substring(0, baseEnd + 1));
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(baseEnd + 1));
+        final List<String[]> retVal = new ArrayList<>();
+        if (!Files.isDirectory(base)) return retVal;
+        try (Stream<Path> paths = Files.walk(base)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                final Path relativePath = base.relativize(path);
+                if (Files.isRegularFile(path) && matcher.matches(relativePath)) {
+                    retVal.add(new String[] {path.toString(), new File(targetDirectory, relativePath.toString()).getPath()});
+                }
+            }
+        } catch (final IOException e) {
+            System.err.println("Couldn't list directory " + base.toAbsolutePath());
+            return null;
+        }
+        return retVal;
+    }
+
+    private static boolean validParameters(final Options options, final boolean standardStreams, final String... args) {
         if (args[0] == null || args[1] == null) {
             System.err.println("Argument cannot be null");
             return false;
@@ -76,112 +386,216 @@ public final class Main {
             System.err.println("Argument cannot be empty string");
             return false;
         }
-        final File sourceFile = new File(args[0]);
-        if (!sourceFile.getName().endsWith(CLASS_FILE_EXT) && !sourceFile.getName().endsWith(JAR_FILE_EXT)) {
-            System.err.println("Supported file extensions are " + CLASS_FILE_EXT + " or " + JAR_FILE_EXT + " : " + sourceFile.getAbsolutePath());
+        final boolean stdin = STANDARD_STREAM.equals(args[0]);
+        final boolean stdout = STANDARD_STREAM.equals(args[1]);
+        if ((stdin || stdout) && (!standardStreams || options.analyze)) {
+            System.err.println("Standard streams are supported only when transforming single archive locally");
             return false;
         }
-        if (!sourceFile.exists()) {
-            System.err.println("Couldn't find file " + sourceFile.getAbsolutePath());
-            return false;
+        if (!stdin) {
+            final File sourceFile = new File(args[0]);
+            if (!sourceFile.exists()) {
+                System.err.println("Couldn't find file " + sourceFile.getAbsolutePath());
+                return false;
+            }
+            if (!sourceFile.isDirectory() && !sourceFile.getName().endsWith(CLASS_FILE_EXT) && !ArchiveTransformer.isArchive(sourceFile.getName())) {
+                System.err.println("Supported file extensions are " + CLASS_FILE_EXT + " or " + String.join(" or ", ArchiveTransformer.getArchiveFileExts()) + " : " + sourceFile.getAbsolutePath());
+                return false;
+            }
+            if (stdout && (sourceFile.isDirectory() || !ArchiveTransformer.isArchive(sourceFile.getName()))) {
+                System.err.println("Only archives can be written to standard output");
+                return false;
+            }
         }
-        final File targetFile = new File(args[1]);
-        if (targetFile.exists()) {
-            System.err.println("Delete file or directory " + targetFile.getAbsolutePath());
-            return false;
+        if (!stdout) {
+            final File targetFile = new File(args[1]);
+            if (targetFile.exists()) {
+                System.err.println("Delete file or directory " + targetFile.getAbsolutePath());
+                return false;
+            }
         }
         return true;
     }
 
-    private static void transformClassFile(final File inClassFile, final File outClassFile) throws IOException {
-        if (inClassFile.length() > Integer.MAX_VALUE) {
-            throw new UnsupportedOperationException("File " + inClassFile.getAbsolutePath() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+    /**
+     * Transforms multiple sources with shared transformer. Sources are started largest first so that the biggest
+     * archives don't prolong the end of the run. Entries of all archives are transformed by single work stealing pool.
+     *
+     * @return throughput report
+     */
+    private static String transformBatch(final Transformer t, final TransformationCache cache, final Options options, final List<File[]> pairs) throws IOException {
+        final long start = System.nanoTime();
+        final Map<File, Long> sizes = new HashMap<>();
+        long totalSize = 0;
+        for (File[] pair : pairs) {
+            sizes.put(pair[0], sizeOf(pair[0]));
+            totalSize += sizes.get(pair[0]);
         }
-
-        final Transformer t = getTransformer();
-        byte[] clazz = new byte[(int)inClassFile.length()];
-        readBytes(new FileInputStream(inClassFile), clazz, true);
-        clazz = t.transform(clazz);
-        writeBytes(new FileOutputStream(outClassFile), clazz, true);
+        final List<File[]> sortedPairs = new ArrayList<>(pairs);
+        sortedPairs.sort(Comparator.comparing((File[] pair) -> sizes.get(pair[0])).reversed());
+        final long inFlightLimit = options.stream ? options.inFlightLimit : 0;
+        final ExecutorService entryExecutor = Executors.newWorkStealingPool(options.threads);
+        final ExecutorService sourceExecutor = Executors.newFixedThreadPool(Math.min(options.threads, pairs.size()));
+        final ArchiveTransformer archiveTransformer = new ArchiveTransformer(t, entryExecutor, options.threads, options.incremental, inFlightLimit);
+        final List<Future<Void>> tasks = new ArrayList<>(pairs.size());
+        try {
+            for (File[] pair : sortedPairs) {
+                tasks.add(sourceExecutor.submit(() -> {
+                    if (pair[0].isDirectory()) {
+                        transformDirectory(t, archiveTransformer, pair[0], pair[1], 1, cache);
+                    } else {
+                        transformFile(t, archiveTransformer, pair[0], pair[1], cache);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> task : tasks) {
+                await(task);
+            }
+        } finally {
+            sourceExecutor.shutdownNow();
+            entryExecutor.shutdownNow();
+        }
+        final long time = Math.max(System.nanoTime() - start, 1);
+        return "Transformed " + pairs.size() + " sources, " + totalSize / MEGABYTE + " MB in " + time / 1000000 + " ms, throughput "
+                + totalSize * 1000000000 / time / MEGABYTE + " MB/s";
     }
 
-    private static void safeClose(final Closeable c) {
-        try {
-            if (c != null) c.close();
-        } catch (final Throwable t) {
-            // ignored
+    private static long sizeOf(final File file) throws IOException {
+        if (!file.isDirectory()) return file.length();
+        try (Stream<Path> paths = Files.walk(file.toPath())) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
         }
     }
 
-    private static void readBytes(final InputStream is, final byte[] clazz, final boolean closeStream) throws IOException {
+    private static void transformDirectory(final Transformer t, final ArchiveTransformer archiveTransformer, final File inDirectory, final File outDirectory, final int threads, final TransformationCache cache) throws IOException {
+        final List<Path> inFiles = new ArrayList<>();
+        final Path inPath = inDirectory.toPath();
+        final Path outPath = outDirectory.toPath();
+        try (Stream<Path> paths = Files.walk(inPath)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(outPath.resolve(inPath.relativize(path)));
+                } else {
+                    inFiles.add(path);
+                }
+            }
+        }
+        final ResourceTransformer resourceTransformer = new ResourceTransformer(t);
+        final ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        final List<Future<Void>> tasks = new ArrayList<>(inFiles.size());
+        FutureTask<Void> task;
         try {
-            int offset = 0;
-            while (offset < clazz.length) {
-                offset += is.read(clazz, offset, clazz.length - offset);
+            for (Path inFile : inFiles) {
+                final String name = inPath.relativize(inFile).toString().replace(File.separatorChar, SEP);
+                final boolean resource = ResourceTransformer.isResource(name);
+                final File outFile = outPath.resolve(resource ? resourceTransformer.transformName(name) : name).toFile();
+                task = new FutureTask<>(() -> {
+                    if (resource) {
+                        transformResourceFile(resourceTransformer, inFile.toFile(), outFile);
+                    } else {
+                        transformFile(t, archiveTransformer, inFile.toFile(), outFile, cache);
+                    }
+                    return null;
+                });
+                if (executor != null) {
+                    executor.execute(task);
+                } else {
+                    task.run();
+                }
+                tasks.add(task);
+            }
+            for (Future<Void> pendingTask : tasks) {
+                await(pendingTask);
             }
         } finally {
-            if (closeStream) {
-                safeClose(is);
+            if (executor != null) {
+                executor.shutdownNow();
             }
         }
     }
 
-    private static void writeBytes(final OutputStream os, final byte[] clazz, final boolean closeStream) throws IOException {
-        try {
-            os.write(clazz);
-        } finally {
-            if (closeStream) {
-                safeClose(os);
+    static void transformFile(final Transformer t, final ArchiveTransformer archiveTransformer, final File inFile, final File outFile, final TransformationCache cache) throws IOException {
+        if (inFile.getName().endsWith(CLASS_FILE_EXT)) {
+            transformClassFile(t, inFile, outFile, cache);
+        } else if (ArchiveTransformer.isArchive(inFile.getName())) {
+            transformArchive(t, archiveTransformer, inFile, outFile, cache);
+        } else {
+            Files.copy(inFile.toPath(), outFile.toPath());
+        }
+    }
+
+    private static void transformClassFile(final Transformer t, final File inClassFile, final File outClassFile, final TransformationCache cache) throws IOException {
+        if (inClassFile.length() > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("File " + inClassFile.getAbsolutePath() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+        }
+
+        final TransformerStats stats = t.getStatistics();
+        final long start = stats != null ? System.nanoTime() : 0;
+        final byte[] clazz = new byte[(int)inClassFile.length()];
+        readBytes(new FileInputStream(inClassFile), clazz, true);
+        if (stats != null) stats.recordIo(System.nanoTime() - start);
+        // hashing and cache lookup cost more than transforming classes rejected without parsing
+        final String cacheKey = cache != null && t.mayTransform(clazz) ? cache.getKey(t, TransformationCache.CLASS_KIND, clazz, 0, clazz.length) : null;
+        final ByteBuffer cachedClass = cacheKey != null ? cache.get(cacheKey) : null;
+        // patched items and unpatched regions are written separately, buffering turns them into few writes
+        try (FileOutputStream fos = new FileOutputStream(outClassFile); OutputStream os = new BufferedOutputStream(fos, BUFFER_SIZE)) {
+            if (cacheKey == null) {
+                t.transform(clazz, 0, clazz.length, os);
+            } else if (cachedClass == null) {
+                final byte[] newClazz = t.transform(clazz);
+                os.write(newClazz);
+                if (newClazz != clazz) cache.put(cacheKey, newClazz, 0, newClazz.length);
+            } else {
+                while (cachedClass.hasRemaining()) fos.getChannel().write(cachedClass);
+            }
+        }
+    }
+
+    static void transformResourceFile(final ResourceTransformer t, final File inFile, final File outFile) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream is = new FileInputStream(inFile); OutputStream os = t.newOutputStream(new FileOutputStream(outFile))) {
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                os.write(buffer, 0, count);
             }
         }
     }
 
-    private static void transformJarFile(final File inJarFile, final File outJarFile) throws IOException {
-        final Transformer t = getTransformer();
-        final Calendar calendar = Calendar.getInstance();
-        JarFile jar = null;
-        JarOutputStream jarOutputStream = null;
-        JarEntry inJarEntry, outJarEntry;
-        byte[] buffer;
+    private static void transformArchive(final Transformer t, final ArchiveTransformer archiveTransformer, final File inArchive, final File outArchive, final TransformationCache cache) throws IOException {
+        final String cacheKey = cache != null ? cache.getKey(t, archiveTransformer.getCacheKind(), inArchive) : null;
+        if (cacheKey != null && cache.get(cacheKey, outArchive)) return;
+        archiveTransformer.transform(inArchive, outArchive);
+        if (cacheKey != null) cache.put(cacheKey, outArchive);
+    }
 
-        try {
-            jar = new JarFile(inJarFile);
-            jarOutputStream = new JarOutputStream(new FileOutputStream(outJarFile));
-
-            for (final Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
-                // jar file entry preconditions
-                inJarEntry = e.nextElement();
-                if (inJarEntry.getSize() == 0) {
-                    continue; // directories
-                }
-                if (inJarEntry.getSize() < 0) {
-                    throw new UnsupportedOperationException("File size " + inJarEntry.getName() + " unknown! File size must be positive number");
-                }
-                if (inJarEntry.getSize() > Integer.MAX_VALUE) {
-                    throw new UnsupportedOperationException("File " + inJarEntry.getName() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
-                }
-                // reading original jar file entry
-                buffer = new byte[(int) inJarEntry.getSize()];
-                readBytes(jar.getInputStream(inJarEntry), buffer, true);
-                // transform byte code of class files
-                if (inJarEntry.getName().endsWith(CLASS_FILE_EXT)) {
-                    buffer = t.transform(buffer);
-                }
-                // writing modified jar file entry
-                outJarEntry = new JarEntry(inJarEntry.getName());
-                outJarEntry.setSize(buffer.length);
-                outJarEntry.setTime(calendar.getTimeInMillis());
-                jarOutputStream.putNextEntry(outJarEntry);
-                writeBytes(jarOutputStream, buffer, false);
-                jarOutputStream.closeEntry();
+    /**
+     * Returns transformer of default mapping. It is loaded from given snapshot or from the snapshot bundled
+     * at build time, it is built from mapping configuration only if there is no snapshot.
+     *
+     * @param statistics whether to collect transformation statistics
+     * @param compaction whether to remove duplicate constant pool items from modified classes
+     * @param snapshot snapshot file or <code>null</code>
+     * @return transformer
+     * @throws IOException if snapshot or mapping configuration couldn't be read
+     */
+    static Transformer getTransformer(final boolean statistics, final boolean compaction, final File snapshot) throws IOException {
+        if (snapshot != null) return Transformer.loadSnapshot(snapshot, statistics, compaction);
+        final URL bundledSnapshot = Transformer.class.getResource(SEP + DEFAULT_SNAPSHOT);
+        if (bundledSnapshot == null) return buildTransformer(statistics, compaction);
+        if (FILE_PROTOCOL.equals(bundledSnapshot.getProtocol())) {
+            try {
+                return Transformer.loadSnapshot(new File(bundledSnapshot.toURI()), statistics, compaction);
+            } catch (final URISyntaxException | IllegalArgumentException ignored) {
+                // not a plain file, read as stream below
             }
-        } finally {
-            safeClose(jar);
-            safeClose(jarOutputStream);
+        }
+        try (InputStream is = bundledSnapshot.openStream()) {
+            return TransformerSnapshot.read(ByteBuffer.wrap(readAll(is)), statistics, compaction);
         }
     }
 
-    private static Transformer getTransformer() throws IOException {
+    private static Transformer buildTransformer(final boolean statistics, final boolean compaction) throws IOException {
         InputStream is = null;
         try {
             is = Transformer.class.getResourceAsStream(SEP + DEFAULT_CONFIG);
@@ -199,6 +613,8 @@ public final class Main {
                     builder.addMapping(from.replace(SEP, DOT), to.replace(SEP, DOT));
                 }
             }
+            if (statistics) builder.enableStatistics();
+            if (compaction) builder.enableCompaction();
             return builder.build();
         } finally {
             safeClose(is);
@@ -207,14 +623,204 @@ public final class Main {
 
     private static void printUsage() {
         System.err.println();
-        System.err.println("Usage: " + Main.class.getName() + " source.class target.class");
+        System.err.println("Usage: " + Main.class.getName() + " [options] source.class target.class");
         System.err.println("       (to transform a class)");
-        System.err.println("   or  " + Main.class.getName() + " source.jar target.jar");
-        System.err.println("       (to transform a jar file)");
+        System.err.println("   or  " + Main.class.getName() + " [options] source.jar target.jar");
+        System.err.println("       (to transform a jar, war, ear or rar file including nested archives and resources)");
+        System.err.println("   or  " + Main.class.getName() + " [options] source-directory target-directory");
+        System.err.println("       (to transform all class files, archives and resources in exploded directory tree)");
+        System.err.println("   or  " + Main.class.getName() + " [options] source1 target1 source2 target2 ...");
+        System.err.println("       (to transform multiple class files, archives or directories sharing single transformer)");
+        System.err.println("   or  " + Main.class.getName() + " [options] 'glob-pattern' target-directory");
+        System.err.println("       (to transform all files matching pattern, e.g. 'lib/*.jar', into target directory)");
+        System.err.println("   or  " + Main.class.getName() + " " + BATCH_OPTION + "manifest [options]");
+        System.err.println("       (to transform source and target pairs listed in manifest file, one pair per line)");
+        System.err.println("   or  " + Main.class.getName() + " [options] -|source.jar -|target.jar");
+        System.err.println("       (to transform an archive streamed from standard input or to standard output)");
+        System.err.println("   or  " + Main.class.getName() + " " + ANALYZE_OPTION + " [options] source report.json|report.csv");
+        System.err.println("       (to report mapping matches in class file, archive or directory tree without transforming it)");
+        System.err.println("   or  " + Main.class.getName() + " " + DAEMON_OPTION + "port [" + SNAPSHOT_OPTION + "file] [" + COMPACT_OPTION + "]");
+        System.err.println("       (to start daemon keeping transformer ready for requests on local port)");
+        System.err.println("   or  " + Main.class.getName() + " " + CLIENT_OPTION + "port [options] source target");
+        System.err.println("       (to let running daemon perform the transformation or analysis)");
+        System.err.println("   or  " + Main.class.getName() + " " + CLIENT_OPTION + "port " + STOP_OPTION);
+        System.err.println("       (to stop running daemon)");
+        System.err.println("   or  " + Main.class.getName() + " " + CREATE_SNAPSHOT_OPTION + "file");
+        System.err.println("       (to write precompiled transformer snapshot of default mapping, see " + SNAPSHOT_OPTION + ")");
+        System.err.println("   or  " + Main.class.getName() + " " + INDEX_OPTION + "file [options] source...");
+        System.err.println("       (to create or update index of classes referenced by class files, archives and directory trees)");
+        System.err.println("   or  " + Main.class.getName() + " " + INDEX_OPTION + "file " + QUERY_OPTION + "name");
+        System.err.println("       (to list classes referencing given class or package, e.g. javax.servlet)");
+        System.err.println("");
+        System.err.println("Options:");
+        System.err.println(" " + THREADS_OPTION + "count         count of threads transforming archive entries or directory files, defaults to 1");
+        System.err.println(" " + CACHE_OPTION + "directory       directory of persistent cache of transformed files");
+        System.err.println(" " + CACHE_LIMIT_OPTION + "size      maximum size of persistent cache in megabytes, defaults to " + DEFAULT_CACHE_LIMIT);
+        System.err.println(" " + INCREMENTAL_OPTION + "           copy unchanged archive entries without recompression, preserving their timestamps");
+        System.err.println(" " + ANALYZE_OPTION + "               write report of mapping matches instead of transforming");
+        System.err.println(" " + STREAM_OPTION + "                read archives sequentially, supporting entries of unknown size");
+        System.err.println(" " + IN_FLIGHT_LIMIT_OPTION + "size  maximum size of streamed archive entries held in memory in megabytes, defaults to " + DEFAULT_IN_FLIGHT_LIMIT);
+        System.err.println(" " + SNAPSHOT_OPTION + "file         load transformer from precompiled snapshot instead of the one bundled or built at startup");
+        System.err.println(" " + COMPACT_OPTION + "               remove duplicate constant pool items from modified classes");
         System.err.println("");
         System.err.println("Notes:");
-        System.err.println(" * source.class or source.jar must exist");
-        System.err.println(" * target.class or target.jar cannot exist");
+        System.err.println(" * source file or directory must exist");
+        System.err.println(" * target file or directory cannot exist");
+        System.err.println(" * archives read from standard input or written to standard output are always streamed");
+        System.err.println(" * multiple sources are transformed largest first, relative paths in manifest are resolved against its directory");
+        System.err.println(" * index update reindexes only artifacts whose size or modification time changed");
+        System.err.println(" * daemon serves only clients able to read its token file in ~/.javax2jakarta, i.e. its owner");
+    }
+
+    /**
+     * Command line options.
+     */
+    private static final class Options {
+        private int count;
+        private int threads = 1;
+        private File cacheDirectory;
+        private long cacheLimit = DEFAULT_CACHE_LIMIT * MEGABYTE;
+        private boolean incremental;
+        private boolean analyze;
+        private boolean stream;
+        private long inFlightLimit = DEFAULT_IN_FLIGHT_LIMIT * MEGABYTE;
+        private File manifest;
+        private int daemonPort;
+        private int clientPort;
+        private boolean stop;
+        private File snapshot;
+        private File snapshotTarget;
+        private boolean compact;
+        private File index;
+        private String query;
+        private int mode = MODE_TRANSFORM;
+
+        /**
+         * Parses options preceding source and target file arguments and selects the mode they request.
+         *
+         * @param args command line arguments
+         * @return parsed options or <code>null</code> if some option is invalid or options of different modes are combined
+         */
+        private static Options parse(final String... args) {
+            final Options options = new Options();
+            for (String arg : args) {
+                if (arg == null || !arg.startsWith(OPTION_PREFIX)) break;
+                options.count++;
+                if (arg.startsWith(THREADS_OPTION)) {
+                    final long threads = parsePositiveNumber(THREADS_OPTION, arg);
+                    if (threads < 1 || threads > Integer.MAX_VALUE) return null;
+                    options.threads = (int) threads;
+                } else if (arg.startsWith(CACHE_OPTION)) {
+                    options.cacheDirectory = new File(arg.substring(CACHE_OPTION.length()));
+                } else if (arg.startsWith(CACHE_LIMIT_OPTION)) {
+                    final long cacheLimit = parsePositiveNumber(CACHE_LIMIT_OPTION, arg);
+                    if (cacheLimit < 1 || cacheLimit > Long.MAX_VALUE / MEGABYTE) return null;
+                    options.cacheLimit = cacheLimit * MEGABYTE;
+                } else if (INCREMENTAL_OPTION.equals(arg)) {
+                    options.incremental = true;
+                } else if (ANALYZE_OPTION.equals(arg)) {
+                    options.analyze = true;
+                } else if (arg.startsWith(BATCH_OPTION)) {
+                    options.manifest = new File(arg.substring(BATCH_OPTION.length()));
+                } else if (STREAM_OPTION.equals(arg)) {
+                    options.stream = true;
+                } else if (arg.startsWith(IN_FLIGHT_LIMIT_OPTION)) {
+                    final long inFlightLimit = parsePositiveNumber(IN_FLIGHT_LIMIT_OPTION, arg);
+                    if (inFlightLimit < 1 || inFlightLimit > Long.MAX_VALUE / MEGABYTE) return null;
+                    options.inFlightLimit = inFlightLimit * MEGABYTE;
+                } else if (arg.startsWith(DAEMON_OPTION)) {
+                    options.daemonPort = parsePort(DAEMON_OPTION, arg);
+                    if (options.daemonPort < 0) return null;
+                } else if (arg.startsWith(CLIENT_OPTION)) {
+                    options.clientPort = parsePort(CLIENT_OPTION, arg);
+                    if (options.clientPort < 0) return null;
+                } else if (STOP_OPTION.equals(arg)) {
+                    options.stop = true;
+                } else if (arg.startsWith(SNAPSHOT_OPTION)) {
+                    options.snapshot = new File(arg.substring(SNAPSHOT_OPTION.length()));
+                } else if (arg.startsWith(CREATE_SNAPSHOT_OPTION)) {
+                    options.snapshotTarget = new File(arg.substring(CREATE_SNAPSHOT_OPTION.length()));
+                } else if (COMPACT_OPTION.equals(arg)) {
+                    options.compact = true;
+                } else if (arg.startsWith(INDEX_OPTION)) {
+                    options.index = new File(arg.substring(INDEX_OPTION.length()));
+                } else if (arg.startsWith(QUERY_OPTION)) {
+                    options.query = arg.substring(QUERY_OPTION.length());
+                } else {
+                    System.err.println("Unknown option " + arg);
+                    return null;
+                }
+            }
+            return options.selectMode(args.length - options.count) ? options : null;
+        }
+
+        /**
+         * Selects the mode requested by options. Daemon, client, snapshot creation and index modes are mutually exclusive,
+         * transformation is selected if none of them is requested.
+         *
+         * @param filesCount count of arguments following options
+         * @return whether options and arguments are valid for the selected mode
+         */
+        private boolean selectMode(final int filesCount) {
+            int modesCount = 0;
+            if (daemonPort > 0) {
+                mode = MODE_DAEMON;
+                modesCount++;
+            }
+            if (clientPort > 0 || stop) {
+                mode = stop ? MODE_STOP : MODE_CLIENT;
+                modesCount++;
+            }
+            if (snapshotTarget != null) {
+                mode = MODE_CREATE_SNAPSHOT;
+                modesCount++;
+            }
+            if (index != null || query != null) {
+                mode = query != null ? MODE_QUERY : MODE_INDEX;
+                modesCount++;
+            }
+            if (modesCount > 1) {
+                System.err.println("Options " + DAEMON_OPTION + ", " + CLIENT_OPTION + ", " + CREATE_SNAPSHOT_OPTION + " and " + INDEX_OPTION + " cannot be combined");
+                return false;
+            }
+            if (stop && clientPort == 0) {
+                System.err.println("Option " + STOP_OPTION + " requires " + CLIENT_OPTION + "port");
+                return false;
+            }
+            if (query != null && index == null) {
+                System.err.println("Option " + QUERY_OPTION + " requires " + INDEX_OPTION + "file");
+                return false;
+            }
+            if (mode == MODE_INDEX && filesCount == 0) {
+                System.err.println("Option " + INDEX_OPTION + " requires sources to index");
+                return false;
+            }
+            if (mode != MODE_TRANSFORM && mode != MODE_CLIENT && mode != MODE_INDEX && filesCount != 0) {
+                System.err.println("No file arguments expected");
+                return false;
+            }
+            return true;
+        }
+
+        private static int parsePort(final String option, final String arg) {
+            final long port = parsePositiveNumber(option, arg);
+            if (port > MAX_PORT) {
+                System.err.println("Option " + option + " requires port number");
+                return -1;
+            }
+            return (int) port;
+        }
+
+        private static long parsePositiveNumber(final String option, final String arg) {
+            try {
+                final long value = Long.parseLong(arg.substring(option.length()));
+                if (value > 0) return value;
+            } catch (final NumberFormatException ignored) {
+                // reported below
+            }
+            System.err.println("Option " + option + " requires positive number");
+            return -1;
+        }
     }
 
 }
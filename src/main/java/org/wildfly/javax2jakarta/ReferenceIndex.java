@@ -0,0 +1,822 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.wildfly.javax2jakarta.ClassFileUtils.*;
+import static org.wildfly.javax2jakarta.IOUtils.await;
+import static org.wildfly.javax2jakarta.IOUtils.readBytes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Persistent inverted index of classes referenced by class files and archives. For every referenced class it lists
+ * the artifacts and classes referencing it, so questions like which artifacts still use some <code>javax</code>
+ * package are answered without scanning the artifacts again. Referenced classes are collected from
+ * <code>CONSTANT_Class_info</code> structures and from descriptors and signatures held by other
+ * <code>CONSTANT_Utf8_info</code> structures. String literals are not considered references.
+ * <p>
+ * Artifacts are indexed in parallel, nested archives are indexed recursively in memory. Updating the index reindexes
+ * only artifacts whose size or last modification time changed, the others are taken over from the previous index.
+ * Index is queried in place from memory mapped file. Index layout, all numbers are big endian and arrays are preceded
+ * with their length:
+ * <pre>
+ *   +---------------------+
+ *   | magic               |
+ *   +---------------------+
+ *   | version             |
+ *   +---------------------+
+ *   | string offsets      | <code>int[S + 1]</code> offsets of strings inside string bytes
+ *   +---------------------+
+ *   | string bytes        | <code>byte[]</code> modified UTF-8 encoded strings
+ *   +---------------------+
+ *   | artifact paths      | <code>int[A]</code> string indices of absolute artifact paths, sorted
+ *   +---------------------+
+ *   | artifact sizes      | <code>long[A]</code>
+ *   +---------------------+
+ *   | artifact timestamps | <code>long[A]</code> last modification times
+ *   +---------------------+
+ *   | artifact classes    | <code>int[A + 1]</code> index of first class of every artifact
+ *   +---------------------+
+ *   | class names         | <code>int[C]</code> string indices of class names, prefixed with nested archive location
+ *   +---------------------+
+ *   | referenced classes  | <code>int[R]</code> string indices of referenced class names, sorted by their bytes
+ *   +---------------------+
+ *   | references          | <code>int[R + 1]</code> index of first reference of every referenced class
+ *   +---------------------+
+ *   | referencing classes | <code>int[N]</code> class indices, ascending for every referenced class
+ *   +---------------------+
+ * </pre>
+ * </p>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ReferenceIndex {
+
+    private static final int MAGIC = 0x4A324A49;
+    private static final int VERSION = 1;
+    private static final String CLASS_FILE_EXT = ArchiveTransformer.CLASS_FILE_EXT;
+    private static final String NESTED_ENTRY_SEPARATOR = "!/";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String PACKAGE_WILDCARD = "*";
+    private static final char SEP = '/';
+    private static final char DOT = '.';
+    private static final char INNER_CLASS_SEP = '$';
+    private static final byte CLASS_NAME = 1;
+    private static final byte STRING_VALUE = 2;
+    private static final String[] NO_REFERENCES = new String[0];
+
+    private final ByteBuffer stringBytes;
+    private final IntBuffer stringOffsets;
+    private final IntBuffer artifactPaths;
+    private final LongBuffer artifactSizes;
+    private final LongBuffer artifactTimestamps;
+    private final IntBuffer artifactClasses;
+    private final IntBuffer classNames;
+    private final IntBuffer referencedClasses;
+    private final IntBuffer references;
+    private final IntBuffer referencingClasses;
+
+    private ReferenceIndex(final ByteBuffer buffer) throws IOException {
+        check(buffer.getInt() == MAGIC);
+        final int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported reference index version " + version);
+        stringOffsets = readInts(buffer);
+        final int length = buffer.getInt();
+        check(length >= 0 && length <= buffer.remaining());
+        stringBytes = slice(buffer, length);
+        artifactPaths = readInts(buffer);
+        artifactSizes = readLongs(buffer);
+        artifactTimestamps = readLongs(buffer);
+        artifactClasses = readInts(buffer);
+        classNames = readInts(buffer);
+        referencedClasses = readInts(buffer);
+        references = readInts(buffer);
+        referencingClasses = readInts(buffer);
+        check(!buffer.hasRemaining());
+        final int artifactsCount = artifactPaths.limit();
+        check(artifactSizes.limit() == artifactsCount && artifactTimestamps.limit() == artifactsCount);
+        check(artifactClasses.limit() == artifactsCount + 1 && artifactClasses.get(artifactsCount) == classNames.limit());
+        check(references.limit() == referencedClasses.limit() + 1 && references.get(referencedClasses.limit()) == referencingClasses.limit());
+    }
+
+    /**
+     * Opens memory mapped index.
+     *
+     * @param indexFile index file
+     * @return opened index
+     * @throws IOException if index couldn't be read or it is corrupted
+     */
+    private static ReferenceIndex open(final File indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            return open(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads index to heap. Unlike memory mapped index file it can be replaced while the index is used on all platforms.
+     *
+     * @param indexFile index file
+     * @return read index
+     * @throws IOException if index couldn't be read or it is corrupted
+     */
+    private static ReferenceIndex read(final File indexFile) throws IOException {
+        return open(ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath())));
+    }
+
+    private static ReferenceIndex open(final ByteBuffer buffer) throws IOException {
+        try {
+            return new ReferenceIndex(buffer);
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupted reference index", e);
+        }
+    }
+
+    /**
+     * Creates or updates index of classes referenced by given class files, archives and class files and archives
+     * in given directory trees. Artifacts not given are removed from the index.
+     *
+     * @param indexFile index file to create or update
+     * @param sources class files, archives or directories to index
+     * @param threads count of threads indexing artifacts
+     * @return indexing summary
+     * @throws IOException if some I/O error occurs
+     */
+    static String update(final File indexFile, final List<File> sources, final int threads) throws IOException {
+        final long start = System.nanoTime();
+        final Map<String, File> files = new TreeMap<>();
+        for (File source : sources) {
+            if (source.isDirectory()) {
+                try (Stream<Path> paths = Files.walk(source.toPath())) {
+                    for (Path path : (Iterable<Path>) paths::iterator) {
+                        if (Files.isRegularFile(path) && isSupported(path.getFileName().toString())) {
+                            files.put(path.toFile().getAbsolutePath(), path.toFile());
+                        }
+                    }
+                }
+            } else {
+                files.put(source.getAbsolutePath(), source);
+            }
+        }
+        // up to date artifacts are copied out of previous index before it is replaced
+        final Map<String, Integer> previousArtifacts = new HashMap<>();
+        Map<String, Artifact> artifacts = new TreeMap<>();
+        if (indexFile.exists()) {
+            try {
+                final ReferenceIndex previous = read(indexFile);
+                previousArtifacts.putAll(previous.getArtifacts());
+                final Map<String, Integer> upToDateArtifacts = new HashMap<>();
+                Integer previousIndex;
+                for (Map.Entry<String, File> file : files.entrySet()) {
+                    previousIndex = previousArtifacts.get(file.getKey());
+                    if (previousIndex != null && previous.isUpToDate(previousIndex, file.getValue())) {
+                        upToDateArtifacts.put(file.getKey(), previousIndex);
+                    }
+                }
+                artifacts = previous.getArtifacts(upToDateArtifacts);
+            } catch (final IOException | RuntimeException e) {
+                previousArtifacts.clear();
+                System.err.println("Rebuilding reference index " + indexFile + ": " + e.getMessage());
+            }
+        }
+        final int upToDateCount = artifacts.size();
+        final Map<String, Future<Artifact>> tasks = new TreeMap<>();
+        final ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            FutureTask<Artifact> task;
+            for (Map.Entry<String, File> file : files.entrySet()) {
+                if (artifacts.containsKey(file.getKey())) continue;
+                task = new FutureTask<>(() -> indexArtifact(file.getKey(), file.getValue()));
+                if (executor != null) {
+                    executor.execute(task);
+                } else {
+                    task.run();
+                }
+                tasks.put(file.getKey(), task);
+            }
+            for (Map.Entry<String, Future<Artifact>> pendingTask : tasks.entrySet()) {
+                artifacts.put(pendingTask.getKey(), await(pendingTask.getValue()));
+            }
+            final int referencedClassesCount = write(indexFile, artifacts.values());
+            int classesCount = 0;
+            for (Artifact artifact : artifacts.values()) {
+                classesCount += artifact.classes.size();
+            }
+            return "Indexed " + tasks.size() + " of " + files.size() + " artifacts, " + upToDateCount + " up to date, "
+                    + (previousArtifacts.size() - upToDateCount - countReindexed(previousArtifacts, tasks)) + " removed, "
+                    + classesCount + " classes referencing " + referencedClassesCount + " classes in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms";
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static int countReindexed(final Map<String, Integer> previousArtifacts, final Map<String, Future<Artifact>> tasks) {
+        int retVal = 0;
+        for (String path : tasks.keySet()) {
+            if (previousArtifacts.containsKey(path)) retVal++;
+        }
+        return retVal;
+    }
+
+    /**
+     * Writes classes referencing given class, classes nested in it or classes of given package and its subpackages
+     * to given stream. Every line holds artifact path and referencing class name separated by tab character.
+     *
+     * @param indexFile index file
+     * @param name internal or binary name of referenced class or package, optionally followed by <code>.*</code>
+     * @param out stream to write referencing classes to
+     * @return query summary
+     * @throws IOException if index couldn't be read or it is corrupted
+     */
+    static String query(final File indexFile, final String name, final PrintStream out) throws IOException {
+        final long start = System.nanoTime();
+        String referencedName = name.replace(DOT, SEP);
+        if (referencedName.endsWith(PACKAGE_WILDCARD)) referencedName = referencedName.substring(0, referencedName.length() - 1);
+        if (referencedName.endsWith(String.valueOf(SEP))) referencedName = referencedName.substring(0, referencedName.length() - 1);
+        final ReferenceIndex index = open(indexFile);
+        final BitSet classes = new BitSet();
+        int artifactsCount = 0;
+        try {
+            index.collect(stringToUtf8(referencedName), false, classes);
+            index.collect(stringToUtf8(referencedName + SEP), true, classes);
+            index.collect(stringToUtf8(referencedName + INNER_CLASS_SEP), true, classes);
+            int artifact = -1, printedArtifact = -1;
+            for (int clazz = classes.nextSetBit(0); clazz >= 0; clazz = classes.nextSetBit(clazz + 1)) {
+                while (index.artifactClasses.get(artifact + 1) <= clazz) artifact++;
+                if (artifact != printedArtifact) {
+                    printedArtifact = artifact;
+                    artifactsCount++;
+                }
+                out.println(index.getString(index.artifactPaths.get(artifact)) + '\t' + index.getString(index.classNames.get(clazz)));
+            }
+        } catch (final IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupted reference index", e);
+        }
+        return "Found " + classes.cardinality() + " classes in " + artifactsCount + " artifacts referencing " + name + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms";
+    }
+
+    /**
+     * Marks classes referencing classes of given name or name prefix.
+     *
+     * @param key modified UTF-8 encoded referenced class name or its prefix
+     * @param prefix whether key is name prefix
+     * @param classes referencing classes
+     */
+    private void collect(final byte[] key, final boolean prefix, final BitSet classes) {
+        int low = 0, high = referencedClasses.limit(), middle;
+        while (low < high) {
+            middle = (low + high) >>> 1;
+            if (compare(referencedClasses.get(middle), key, false) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < referencedClasses.limit() && compare(referencedClasses.get(i), key, prefix) == 0; i++) {
+            for (int j = references.get(i); j < references.get(i + 1); j++) {
+                classes.set(referencingClasses.get(j));
+            }
+            if (!prefix) break;
+        }
+    }
+
+    /**
+     * Compares string bytes with given key using unsigned lexicographic order.
+     *
+     * @param index string index
+     * @param key modified UTF-8 encoded key
+     * @param prefix whether strings starting with the key are considered equal to the key
+     * @return negative number, zero or positive number if string is less than, equal to or greater than the key
+     */
+    private int compare(final int index, final byte[] key, final boolean prefix) {
+        final int offset = stringOffsets.get(index);
+        final int length = stringOffsets.get(index + 1) - offset;
+        int diff;
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            diff = (stringBytes.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+        return prefix && length >= key.length ? 0 : length - key.length;
+    }
+
+    private String getString(final int index) {
+        final int offset = stringOffsets.get(index);
+        final int length = stringOffsets.get(index + 1) - offset;
+        if (offset < 0 || length < 0 || length > stringBytes.limit() - offset) throw new IndexOutOfBoundsException();
+        final byte[] data = new byte[length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = stringBytes.get(offset + i);
+        }
+        return utf8ToString(data, 0, data.length);
+    }
+
+    private Map<String, Integer> getArtifacts() {
+        final Map<String, Integer> retVal = new HashMap<>();
+        for (int i = 0; i < artifactPaths.limit(); i++) {
+            retVal.put(getString(artifactPaths.get(i)), i);
+        }
+        return retVal;
+    }
+
+    private boolean isUpToDate(final int artifact, final File file) {
+        return artifactSizes.get(artifact) == file.length() && artifactTimestamps.get(artifact) == file.lastModified();
+    }
+
+    /**
+     * Reconstructs given artifacts from this index.
+     *
+     * @param artifacts artifact paths to artifact indices
+     * @return artifact paths to artifacts
+     */
+    private Map<String, Artifact> getArtifacts(final Map<String, Integer> artifacts) {
+        final List<String>[] classReferences = newListArray(classNames.limit());
+        for (int artifact : artifacts.values()) {
+            for (int clazz = artifactClasses.get(artifact); clazz < artifactClasses.get(artifact + 1); clazz++) {
+                classReferences[clazz] = new ArrayList<>();
+            }
+        }
+        String referencedClass;
+        for (int i = 0; i < referencedClasses.limit(); i++) {
+            referencedClass = null;
+            for (int j = references.get(i); j < references.get(i + 1); j++) {
+                if (classReferences[referencingClasses.get(j)] == null) continue;
+                if (referencedClass == null) referencedClass = getString(referencedClasses.get(i));
+                classReferences[referencingClasses.get(j)].add(referencedClass);
+            }
+        }
+        final Map<String, Artifact> retVal = new TreeMap<>();
+        Artifact artifact;
+        for (Map.Entry<String, Integer> entry : artifacts.entrySet()) {
+            final int index = entry.getValue();
+            artifact = new Artifact(entry.getKey(), artifactSizes.get(index), artifactTimestamps.get(index));
+            for (int clazz = artifactClasses.get(index); clazz < artifactClasses.get(index + 1); clazz++) {
+                artifact.classes.put(getString(classNames.get(clazz)), classReferences[clazz].toArray(NO_REFERENCES));
+            }
+            retVal.put(entry.getKey(), artifact);
+        }
+        return retVal;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String>[] newListArray(final int length) {
+        return (List<String>[]) new List<?>[length];
+    }
+
+    private static boolean isSupported(final String name) {
+        return name.endsWith(CLASS_FILE_EXT) || ArchiveTransformer.isArchive(name);
+    }
+
+    private static Artifact indexArtifact(final String path, final File file) throws IOException {
+        final Artifact retVal = new Artifact(path, file.length(), file.lastModified());
+        final ReferenceParser parser = new ReferenceParser();
+        if (file.getName().endsWith(CLASS_FILE_EXT)) {
+            if (file.length() > Integer.MAX_VALUE) {
+                throw new UnsupportedOperationException("File " + file.getAbsolutePath() + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+            }
+            final byte[] clazz = new byte[(int) file.length()];
+            readBytes(new FileInputStream(file), clazz, true);
+            parser.indexClass(path, "", clazz, retVal);
+        } else {
+            try (ZipReader zip = ZipReader.open(file)) {
+                indexArchive(zip, path, "", parser, retVal);
+            }
+        }
+        return retVal;
+    }
+
+    private static void indexArchive(final ZipReader zip, final String location, final String prefix, final ReferenceParser parser, final Artifact artifact) throws IOException {
+        for (ZipReader.Entry entry : zip.getEntries()) {
+            if (entry.name.endsWith(CLASS_FILE_EXT)) {
+                parser.indexClass(location + NESTED_ENTRY_SEPARATOR + entry.name, prefix, zip.read(entry), artifact);
+            } else if (ArchiveTransformer.isArchive(entry.name)) {
+                try (ZipReader nestedZip = ZipReader.open(zip.read(entry))) {
+                    indexArchive(nestedZip, location + NESTED_ENTRY_SEPARATOR + entry.name, prefix + entry.name + NESTED_ENTRY_SEPARATOR, parser, artifact);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes index of given artifacts.
+     *
+     * @param indexFile index file to create or replace
+     * @param artifacts artifacts sorted by their paths
+     * @return count of referenced classes
+     * @throws IOException if some I/O error occurs
+     */
+    private static int write(final File indexFile, final Collection<Artifact> artifacts) throws IOException {
+        final Map<String, Postings> postings = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+        int classIndex = 0;
+        for (Artifact artifact : artifacts) {
+            strings.add(artifact.path);
+            for (Map.Entry<String, String[]> clazz : artifact.classes.entrySet()) {
+                strings.add(clazz.getKey());
+                for (String referencedClass : clazz.getValue()) {
+                    postings.computeIfAbsent(referencedClass, key -> new Postings()).add(classIndex);
+                }
+                classIndex++;
+            }
+        }
+        final byte[][] referencedClasses = new byte[postings.size()][];
+        int i = 0;
+        for (String referencedClass : postings.keySet()) {
+            referencedClasses[i++] = stringToUtf8(referencedClass);
+        }
+        Arrays.sort(referencedClasses, ReferenceIndex::compare);
+
+        final Path target = indexFile.getAbsoluteFile().toPath();
+        final Path tempFile = Files.createTempFile(target.getParent(), target.getFileName().toString(), TEMP_FILE_SUFFIX);
+        try {
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                // string table holds artifact paths, class names and referenced class names in this order
+                final byte[][] stringData = new byte[strings.size()][];
+                for (i = 0; i < stringData.length; i++) {
+                    stringData[i] = stringToUtf8(strings.get(i));
+                }
+                final int stringsCount = stringData.length + referencedClasses.length;
+                dos.writeInt(stringsCount + 1);
+                int offset = 0;
+                for (byte[] string : stringData) {
+                    dos.writeInt(offset);
+                    offset += string.length;
+                }
+                for (byte[] string : referencedClasses) {
+                    dos.writeInt(offset);
+                    offset += string.length;
+                }
+                dos.writeInt(offset);
+                dos.writeInt(offset);
+                for (byte[] string : stringData) dos.write(string);
+                for (byte[] string : referencedClasses) dos.write(string);
+                // artifacts
+                dos.writeInt(artifacts.size());
+                int stringIndex = 0;
+                for (Artifact artifact : artifacts) {
+                    dos.writeInt(stringIndex);
+                    stringIndex += 1 + artifact.classes.size();
+                }
+                dos.writeInt(artifacts.size());
+                for (Artifact artifact : artifacts) dos.writeLong(artifact.size);
+                dos.writeInt(artifacts.size());
+                for (Artifact artifact : artifacts) dos.writeLong(artifact.lastModified);
+                dos.writeInt(artifacts.size() + 1);
+                classIndex = 0;
+                for (Artifact artifact : artifacts) {
+                    dos.writeInt(classIndex);
+                    classIndex += artifact.classes.size();
+                }
+                dos.writeInt(classIndex);
+                // classes
+                dos.writeInt(classIndex);
+                stringIndex = 0;
+                for (Artifact artifact : artifacts) {
+                    stringIndex++;
+                    for (i = 0; i < artifact.classes.size(); i++) dos.writeInt(stringIndex++);
+                }
+                // referenced classes and their postings
+                dos.writeInt(referencedClasses.length);
+                for (i = 0; i < referencedClasses.length; i++) dos.writeInt(stringData.length + i);
+                dos.writeInt(referencedClasses.length + 1);
+                int postingsCount = 0;
+                Postings referencingClasses;
+                for (byte[] referencedClass : referencedClasses) {
+                    dos.writeInt(postingsCount);
+                    postingsCount += postings.get(utf8ToString(referencedClass, 0, referencedClass.length)).size;
+                }
+                dos.writeInt(postingsCount);
+                dos.writeInt(postingsCount);
+                for (byte[] referencedClass : referencedClasses) {
+                    referencingClasses = postings.get(utf8ToString(referencedClass, 0, referencedClass.length));
+                    for (i = 0; i < referencingClasses.size; i++) dos.writeInt(referencingClasses.values[i]);
+                }
+            }
+            try {
+                Files.move(tempFile, target, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return referencedClasses.length;
+    }
+
+    private static int compare(final byte[] data1, final byte[] data2) {
+        int diff;
+        for (int i = 0; i < Math.min(data1.length, data2.length); i++) {
+            diff = (data1[i] & 0xFF) - (data2[i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+        return data1.length - data2.length;
+    }
+
+    private static IntBuffer readInts(final ByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        check(length >= 0 && length <= buffer.remaining() / 4);
+        return slice(buffer, length * 4).asIntBuffer();
+    }
+
+    private static LongBuffer readLongs(final ByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        check(length >= 0 && length <= buffer.remaining() / 8);
+        return slice(buffer, length * 8).asLongBuffer();
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int length) {
+        final ByteBuffer retVal = buffer.slice();
+        retVal.limit(length);
+        buffer.position(buffer.position() + length);
+        return retVal;
+    }
+
+    private static void check(final boolean condition) throws IOException {
+        if (!condition) throw new IOException("Corrupted reference index");
+    }
+
+    /**
+     * Indexed artifact.
+     */
+    private static final class Artifact {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        /**
+         * Class names prefixed with nested archive location to referenced class names.
+         */
+        private final Map<String, String[]> classes = new TreeMap<>();
+
+        private Artifact(final String path, final long size, final long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Growable array of referencing class indices.
+     */
+    private static final class Postings {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(final int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Collects class names referenced by class. Every indexing task uses its own parser.
+     */
+    private static final class ReferenceParser {
+        private final Map<String, String> names = new HashMap<>();
+        private int[] ranges = new int[64];
+        private int rangesSize;
+        private byte[] clazz;
+
+        /**
+         * Adds class and class names it references to the artifact.
+         *
+         * @param location class file location used in error messages
+         * @param prefix nested archive location prefixing the class name
+         * @param clazz class byte code
+         * @param artifact artifact to add the class to
+         */
+        private void indexClass(final String location, final String prefix, final byte[] clazz, final Artifact artifact) {
+            this.clazz = clazz;
+            rangesSize = 0;
+            try {
+                final int[] constantPool = getConstantPool(clazz);
+                final String className = getClassName(clazz, constantPool);
+                final byte[] kinds = new byte[constantPool.length];
+                int position;
+                for (int i = 1; i < constantPool.length; i++) {
+                    position = constantPool[i];
+                    if (position == 0) continue;
+                    if (clazz[position] == CLASS) {
+                        kinds[readUnsignedShort(clazz, position + 1)] = CLASS_NAME;
+                    } else if (clazz[position] == STRING && kinds[readUnsignedShort(clazz, position + 1)] == 0) {
+                        kinds[readUnsignedShort(clazz, position + 1)] = STRING_VALUE;
+                    }
+                }
+                int start, end, mark;
+                for (int i = 1; i < constantPool.length; i++) {
+                    position = constantPool[i];
+                    if (position == 0 || clazz[position] != UTF8 || kinds[i] == STRING_VALUE) continue;
+                    start = position + 3;
+                    end = start + readUnsignedShort(clazz, position + 1);
+                    if (kinds[i] == CLASS_NAME && start < end && clazz[start] != '[') {
+                        addRange(start, end);
+                        continue;
+                    }
+                    mark = rangesSize;
+                    if (parseSignature(start, end) != end) rangesSize = mark;
+                }
+                final String[] references = new String[rangesSize / 2];
+                int count = 0;
+                String name;
+                for (int i = 0; i < rangesSize; i += 2) {
+                    name = utf8ToString(clazz, ranges[i], ranges[i + 1]);
+                    if (name.equals(className)) continue;
+                    references[count++] = names.computeIfAbsent(name, key -> key);
+                }
+                Arrays.sort(references, 0, count);
+                int unique = 0;
+                for (int i = 0; i < count; i++) {
+                    if (unique == 0 || !references[i].equals(references[unique - 1])) references[unique++] = references[i];
+                }
+                merge(artifact, prefix + className, Arrays.copyOf(references, unique));
+            } catch (final RuntimeException | UnsupportedClassVersionError e) {
+                System.err.println("Couldn't index class " + location + ": " + e);
+            } finally {
+                this.clazz = null;
+            }
+        }
+
+        /**
+         * Adds class to the artifact. Classes of the same name, e.g. multi-release archive versions, are merged.
+         */
+        private static void merge(final Artifact artifact, final String className, final String[] references) {
+            final String[] previous = artifact.classes.put(className, references);
+            if (previous == null) return;
+            final TreeMap<String, String> union = new TreeMap<>();
+            for (String reference : previous) union.put(reference, reference);
+            for (String reference : references) union.put(reference, reference);
+            artifact.classes.put(className, union.keySet().toArray(NO_REFERENCES));
+        }
+
+        private void addRange(final int start, final int end) {
+            if (rangesSize + 2 > ranges.length) ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            ranges[rangesSize++] = start;
+            ranges[rangesSize++] = end;
+        }
+
+        /**
+         * Parses field or method descriptor or class, field or method signature and records class names inside it.
+         *
+         * @param start the index of the first byte to parse
+         * @param end first index not belonging to the parsed structure
+         * @return the index following parsed structure or <code>-1</code> if it is not descriptor nor signature
+         */
+        private int parseSignature(final int start, final int end) {
+            int position = start;
+            if (position < end && clazz[position] == '<') position = parseTypeParameters(position, end);
+            if (position < 0 || position >= end) return -1;
+            if (clazz[position] == '(') {
+                position++;
+                while (position >= 0 && position < end && clazz[position] != ')') position = parseType(position, end);
+                if (position < 0 || position >= end) return -1;
+                position++;
+                position = position < end && clazz[position] == 'V' ? position + 1 : parseType(position, end);
+                while (position >= 0 && position < end && clazz[position] == '^') position = parseReferenceType(position + 1, end);
+                return position;
+            }
+            position = parseType(position, end);
+            // class signature continues with super class and interfaces
+            while (position >= 0 && position < end) position = parseReferenceType(position, end);
+            return position;
+        }
+
+        private int parseType(final int position, final int end) {
+            if (position >= end) return -1;
+            switch (clazz[position]) {
+                case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z':
+                    return position + 1;
+                default:
+                    return parseReferenceType(position, end);
+            }
+        }
+
+        private int parseReferenceType(int position, final int end) {
+            if (position >= end) return -1;
+            switch (clazz[position]) {
+                case 'L':
+                    return parseClassType(position + 1, end);
+                case 'T':
+                    position = parseIdentifier(position + 1, end, false);
+                    return position >= 0 && position < end && clazz[position] == ';' ? position + 1 : -1;
+                case '[':
+                    return parseType(position + 1, end);
+                default:
+                    return -1;
+            }
+        }
+
+        private int parseClassType(int position, final int end) {
+            final int start = position;
+            position = parseIdentifier(position, end, true);
+            if (position < 0 || position >= end) return -1;
+            addRange(start, position);
+            if (clazz[position] == '<') position = parseTypeArguments(position, end);
+            while (position >= 0 && position < end && clazz[position] == '.') {
+                position = parseIdentifier(position + 1, end, false);
+                if (position >= 0 && position < end && clazz[position] == '<') position = parseTypeArguments(position, end);
+            }
+            return position >= 0 && position < end && clazz[position] == ';' ? position + 1 : -1;
+        }
+
+        private int parseTypeArguments(int position, final int end) {
+            position++;
+            do {
+                if (position >= end) return -1;
+                if (clazz[position] == '*') {
+                    position++;
+                } else {
+                    if (clazz[position] == '+' || clazz[position] == '-') position++;
+                    position = parseReferenceType(position, end);
+                    if (position < 0) return -1;
+                }
+            } while (position < end && clazz[position] != '>');
+            return position < end ? position + 1 : -1;
+        }
+
+        private int parseTypeParameters(int position, final int end) {
+            position++;
+            do {
+                position = parseIdentifier(position, end, false);
+                if (position < 0 || position >= end || clazz[position] != ':') return -1;
+                position++;
+                if (position < end && clazz[position] != ':') position = parseReferenceType(position, end);
+                while (position >= 0 && position < end && clazz[position] == ':') position = parseReferenceType(position + 1, end);
+                if (position < 0) return -1;
+            } while (position < end && clazz[position] != '>');
+            return position < end ? position + 1 : -1;
+        }
+
+        /**
+         * Parses unqualified name or, if <code>qualified</code>, internal class name.
+         *
+         * @return the index following the name or <code>-1</code> if there is no valid name
+         */
+        private int parseIdentifier(int position, final int end, final boolean qualified) {
+            final int start = position;
+            int segmentStart = position;
+            byte b;
+            for (; position < end; position++) {
+                b = clazz[position];
+                if (b == '.' || b == ';' || b == '[' || b == '<' || b == '>' || b == ':') break;
+                if (b == '/') {
+                    if (!qualified || position == segmentStart) return -1;
+                    segmentStart = position + 1;
+                }
+            }
+            return position > start && position > segmentStart ? position : -1;
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Transforms resources referencing mapped packages, i.e. service provider configuration files,
+ * XML descriptors and properties files. Resources are rewritten in a single streaming pass
+ * with the same automaton used for class files, so their content is never decoded to strings.
+ * Only UTF-8 and other ASCII compatible encodings are supported.
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ResourceTransformer {
+
+    private static final String SERVICES_DIR = "META-INF/services/";
+    private static final String[] RESOURCE_FILE_EXTS = {".xml", ".properties"};
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Automaton automaton;
+    private final byte[][] mappingFrom;
+    private final byte[][] mappingTo;
+    private final int maxPatternLength;
+
+    /**
+     * Constructor.
+     *
+     * @param transformer class file transformer providing the mapping
+     */
+    ResourceTransformer(final Transformer transformer) {
+        this.automaton = transformer.getAutomaton();
+        this.mappingFrom = transformer.getMappingFrom();
+        this.mappingTo = transformer.getMappingTo();
+        int maxPatternLength = 1;
+        for (int i = 1; i < mappingFrom.length; i++) {
+            maxPatternLength = Math.max(maxPatternLength, mappingFrom[i].length);
+        }
+        this.maxPatternLength = maxPatternLength;
+    }
+
+    /**
+     * Returns <code>true</code> if given archive entry or file denotes supported resource.
+     *
+     * @param name archive entry name or file path relative to the root directory, using <code>/</code> as separator
+     * @return <code>true</code> if it is a resource, <code>false</code> otherwise
+     */
+    static boolean isResource(final String name) {
+        if (isServiceFile(name)) return true;
+        for (String resourceFileExt : RESOURCE_FILE_EXTS) {
+            if (name.endsWith(resourceFileExt)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Transforms resource name. Only service provider configuration files are renamed.
+     *
+     * @param name archive entry name or file path relative to the root directory, using <code>/</code> as separator
+     * @return either original name instance if it wasn't modified or new name
+     */
+    String transformName(final String name) {
+        if (!isServiceFile(name)) return name;
+        final byte[] oldName = name.getBytes(StandardCharsets.UTF_8);
+        final byte[] newName = transform(oldName);
+        return newName == oldName ? name : new String(newName, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Transforms resource content.
+     *
+     * @param data resource content
+     * @return either original content instance if mapping wasn't applied or modified content
+     */
+    byte[] transform(final byte[] data) {
+        if (!automaton.mayMatch(data, 0, data.length)) return data;
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length + BUFFER_SIZE / 8);
+        final RewritingOutputStream os = new RewritingOutputStream(baos);
+        try {
+            os.write(data, 0, data.length);
+            os.close();
+        } catch (final IOException e) {
+            throw new IllegalStateException(e); // never happens
+        }
+        return os.matches == 0 ? data : baos.toByteArray();
+    }
+
+    /**
+     * Returns stream transforming resource content written to it.
+     * Closing returned stream writes remaining content and closes target stream.
+     *
+     * @param target stream to write transformed content to
+     * @return transforming stream
+     */
+    OutputStream newOutputStream(final OutputStream target) {
+        return new RewritingOutputStream(target);
+    }
+
+    private static boolean isServiceFile(final String name) {
+        final int index = name.lastIndexOf(SERVICES_DIR);
+        if (index < 0 || (index > 0 && name.charAt(index - 1) != '/')) return false;
+        final int nameIndex = index + SERVICES_DIR.length();
+        return nameIndex < name.length() && name.indexOf('/', nameIndex) < 0;
+    }
+
+    /**
+     * Stream replacing mapping matches on the fly. Written bytes are buffered and searched in chunks,
+     * bytes possibly belonging to not yet decided match are held back.
+     */
+    private final class RewritingOutputStream extends OutputStream {
+        private final OutputStream target;
+        private final byte[] pending = new byte[Math.max(BUFFER_SIZE, 2 * maxPatternLength)];
+        private int count;
+        private int matches;
+
+        private RewritingOutputStream(final OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (count == pending.length) process(false);
+            pending[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len) throws IOException {
+            int chunk;
+            while (len > 0) {
+                if (count == pending.length) process(false);
+                chunk = Math.min(len, pending.length - count);
+                System.arraycopy(b, off, pending, count, chunk);
+                count += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        /**
+         * Replaces matches in pending bytes and writes them. Unless it is the last call, matches starting
+         * in the last <code>maxPatternLength - 1</code> bytes could continue and these bytes are kept pending.
+         *
+         * @param last whether no more bytes will be written
+         * @throws IOException if some I/O error occurs
+         */
+        private void process(final boolean last) throws IOException {
+            final int undecided = last ? count : count - maxPatternLength + 1;
+            int position = 0, start, mappingIndex;
+            long match;
+            while ((match = automaton.find(pending, position, count)) != Automaton.NO_MATCH) {
+                start = (int) (match >>> 32);
+                if (start >= undecided) break;
+                mappingIndex = (int) match;
+                target.write(pending, position, start - position);
+                target.write(mappingTo[mappingIndex]);
+                position = start + mappingFrom[mappingIndex].length;
+                matches++;
+            }
+            final int keep = Math.max(0, Math.min(count - position, count - undecided));
+            target.write(pending, position, count - position - keep);
+            System.arraycopy(pending, count - keep, pending, 0, keep);
+            count = keep;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                process(true);
+            } finally {
+                target.close();
+            }
+        }
+    }
+
+}
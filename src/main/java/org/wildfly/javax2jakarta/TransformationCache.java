@@ -0,0 +1,301 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent content addressed cache of transformation results.
+ * Cache keys are derived from the transformed content, the transformer mapping configuration and the kind of transformation.
+ * Least recently used entries are evicted once the cache size exceeds its limit.
+ * Instances of this class are thread safe and the cache directory can be shared by multiple processes.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class TransformationCache {
+
+    /**
+     * Kind of class file transformation. Only modified classes are cached, parsing unchanged class is cheaper
+     * than cache lookup.
+     */
+    static final String CLASS_KIND = "class";
+    /**
+     * Kind of archive transformation.
+     */
+    static final String ARCHIVE_KIND = "archive";
+    /**
+     * Kind of archive transformation copying unchanged entries without recompression.
+     */
+    static final String INCREMENTAL_ARCHIVE_KIND = "incremental-archive";
+    /**
+     * Suffix of archive transformation kinds reading archives as streams.
+     */
+    static final String STREAMED_KIND_SUFFIX = "-streamed";
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int EVICTION_PERCENTAGE = 90;
+
+    private final Path directory;
+    private final long limit;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param directory cache directory, created if it doesn't exist
+     * @param limit maximum cache size in bytes
+     * @throws IOException if cache directory couldn't be created or read
+     */
+    TransformationCache(final File directory, final long limit) throws IOException {
+        this.directory = directory.toPath();
+        this.limit = limit;
+        Files.createDirectories(this.directory);
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.filter(Files::isRegularFile).forEach(file -> size.addAndGet(file.toFile().length()));
+        }
+    }
+
+    /**
+     * Returns cache key for given transformation of given data.
+     *
+     * @param transformer transformer to be used
+     * @param kind kind of transformation, distinguishes results of different transformations of the same data
+     * @param data array holding the data to be transformed
+     * @param offset the index of the first byte of the data
+     * @param length count of data bytes
+     * @return cache key
+     */
+    String getKey(final Transformer transformer, final String kind, final byte[] data, final int offset, final int length) {
+        final MessageDigest digest = newDigest(transformer, kind);
+        digest.update(data, offset, length);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns cache key for given transformation of given file.
+     *
+     * @param transformer transformer to be used
+     * @param kind kind of transformation, distinguishes results of different transformations of the same file
+     * @param file file to be transformed
+     * @return cache key
+     * @throws IOException if file couldn't be read
+     */
+    String getKey(final Transformer transformer, final String kind, final File file) throws IOException {
+        final MessageDigest digest = newDigest(transformer, kind);
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            final long fileSize = channel.size();
+            for (long position = 0; position < fileSize; position += BUFFER_SIZE) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(BUFFER_SIZE, fileSize - position)));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns memory mapped cached content or <code>null</code> if there is no cache entry for given key.
+     *
+     * @param key cache key
+     * @return cached content or <code>null</code>
+     * @throws IOException if cached content couldn't be read
+     */
+    ByteBuffer get(final String key) throws IOException {
+        final Path file = getFile(key);
+        final FileChannel in = open(file);
+        if (in == null) return null;
+        try {
+            return in.size() == 0 ? ByteBuffer.allocate(0) : in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies cached content to given file.
+     *
+     * @param key cache key
+     * @param target file to create
+     * @return <code>true</code> if cached content was found and copied, <code>false</code> otherwise
+     * @throws IOException if cached content couldn't be copied
+     */
+    boolean get(final String key, final File target) throws IOException {
+        final Path file = getFile(key);
+        final FileChannel in = open(file);
+        if (in == null) return false;
+        try (FileChannel out = FileChannel.open(target.toPath(), CREATE_NEW, WRITE)) {
+            final long fileSize = in.size();
+            for (long position = 0; position < fileSize; ) {
+                position += in.transferTo(position, fileSize - position, out);
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Stores content to cache.
+     *
+     * @param key cache key
+     * @param data array holding the content
+     * @param offset the index of the first byte of the content
+     * @param length count of content bytes
+     * @throws IOException if content couldn't be stored
+     */
+    void put(final String key, final byte[] data, final int offset, final int length) throws IOException {
+        final Path file = getFile(key);
+        final Path tempFile = newTempFile(file);
+        try (FileChannel out = FileChannel.open(tempFile, WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            while (buffer.hasRemaining()) out.write(buffer);
+        }
+        commit(tempFile, file, length);
+    }
+
+    /**
+     * Stores file content to cache.
+     *
+     * @param key cache key
+     * @param source file holding the content
+     * @throws IOException if content couldn't be stored
+     */
+    void put(final String key, final File source) throws IOException {
+        final Path file = getFile(key);
+        final Path tempFile = newTempFile(file);
+        Files.copy(source.toPath(), tempFile, REPLACE_EXISTING);
+        commit(tempFile, file, Files.size(tempFile));
+    }
+
+    private Path getFile(final String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    /**
+     * Opens cache entry for reading and marks it as recently used.
+     *
+     * @param file cache entry file
+     * @return opened cache entry or <code>null</code> if there is no such cache entry
+     * @throws IOException if cache entry couldn't be opened
+     */
+    private static FileChannel open(final Path file) throws IOException {
+        try {
+            final FileChannel retVal = FileChannel.open(file, READ);
+            touch(file);
+            return retVal;
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static Path newTempFile(final Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMP_FILE_SUFFIX);
+    }
+
+    private void commit(final Path tempFile, final Path file, final long fileSize) throws IOException {
+        final boolean existed = Files.exists(file);
+        try {
+            Files.move(tempFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, REPLACE_EXISTING);
+        }
+        if (!existed && size.addAndGet(fileSize) > limit) {
+            evict();
+        }
+    }
+
+    private static void touch(final Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (final IOException ignored) {
+            // LRU ordering is best effort
+        }
+    }
+
+    /**
+     * Removes least recently used cache entries until cache size drops below 90% of its limit.
+     */
+    private synchronized void evict() throws IOException {
+        if (size.get() <= limit) return;
+        final List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.filter(Files::isRegularFile).filter(file -> !file.toString().endsWith(TEMP_FILE_SUFFIX)).forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+        final long target = limit / 100 * EVICTION_PERCENTAGE;
+        long fileSize;
+        for (Path file : files) {
+            if (size.get() <= target) break;
+            fileSize = file.toFile().length();
+            if (Files.deleteIfExists(file)) {
+                size.addAndGet(-fileSize);
+            }
+        }
+    }
+
+    private static MessageDigest newDigest(final Transformer transformer, final String kind) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(transformer.getMappingDigest());
+        digest.update(kind.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        return digest;
+    }
+
+    private static String toHex(final byte[] data) {
+        final char[] retVal = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            retVal[2 * i] = HEX_DIGITS[(data[i] >>> 4) & 0xF];
+            retVal[2 * i + 1] = HEX_DIGITS[data[i] & 0xF];
+        }
+        return new String(retVal);
+    }
+
+}
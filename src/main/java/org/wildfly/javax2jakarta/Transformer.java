@@ -25,11 +25,21 @@ import static java.lang.System.arraycopy;
 import static java.lang.Thread.currentThread;
 import static org.wildfly.javax2jakarta.ClassFileUtils.*;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Class file transformer.
@@ -40,14 +50,16 @@ import java.util.Map;
 public final class Transformer {
 
     /**
-     * Patch info mask.
+     * Debugging support.
      */
-    private static final int PATCH_MASK = 0xFFFF;
+    private static final boolean DEBUG = Boolean.getBoolean(Transformer.class.getName() + ".debug");
 
     /**
-     * Debugging support.
+     * Maximum length of <code>CONSTANT_Utf8_info</code> structure bytes section.
      */
-    private static final boolean DEBUG = Boolean.getBoolean(Transformer.class.getName() + ".debug");
+    private static final int MAX_UTF8_LENGTH = 0xFFFF;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final byte[] COMPACTION_DIGEST_MARKER = {0, 'c', 'o', 'm', 'p', 'a', 'c', 't'};
 
     /**
      * Represents strings we are searching for in <code>CONSTANT_Utf8_info</code> structures (encoded in modified UTF-8).
@@ -62,21 +74,147 @@ public final class Transformer {
     private final byte[][] mappingTo;
 
     /**
-     * Used for detecting maximum size of internal patch info arrays and for decreasing patch search space.
+     * Automaton matching all <code>mappingFrom</code> strings in a single pass.
+     */
+    private final Automaton automaton;
+
+    /**
+     * Whether duplicate <code>constant pool</code> items are removed from modified classes.
+     */
+    private final boolean compaction;
+
+    /**
+     * SHA-256 digest of the mapping configuration. Identifies transformers producing identical results.
+     */
+    private final byte[] mappingDigest;
+
+    /**
+     * Transformation statistics or <code>null</code> if statistics are not collected.
      */
-    private final int minimum;
+    private final TransformerStats stats;
 
     /**
      * Constructor.
      *
      * @param mappingFrom modified UTF-8 encoded search strings
      * @param mappingTo modified UTF-8 encoded patch strings
-     * @param minimum length of the smallest search string
+     * @param automaton compiled search strings
+     * @param statistics whether to collect transformation statistics
+     * @param compaction whether to remove duplicate <code>constant pool</code> items from modified classes
      */
-    private Transformer(final byte[][] mappingFrom, final byte[][] mappingTo, final int minimum) {
+    Transformer(final byte[][] mappingFrom, final byte[][] mappingTo, final Automaton automaton, final boolean statistics, final boolean compaction) {
         this.mappingFrom = mappingFrom;
         this.mappingTo = mappingTo;
-        this.minimum = minimum;
+        this.automaton = automaton;
+        this.compaction = compaction;
+        this.mappingDigest = digest(mappingFrom, mappingTo, compaction);
+        if (statistics) {
+            final String[] mappingNames = new String[mappingFrom.length];
+            for (int i = 1; i < mappingFrom.length; i++) {
+                mappingNames[i] = utf8ToString(mappingFrom[i], 0, mappingFrom[i].length);
+            }
+            this.stats = new TransformerStats(mappingNames);
+        } else {
+            this.stats = null;
+        }
+    }
+
+    private static byte[] digest(final byte[][] mappingFrom, final byte[][] mappingTo, final boolean compaction) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 1; i < mappingFrom.length; i++) {
+            // modified UTF-8 never contains zero byte so it can be used as separator
+            digest.update(mappingFrom[i]);
+            digest.update((byte) 0);
+            digest.update(mappingTo[i]);
+            digest.update((byte) 0);
+        }
+        if (compaction) digest.update(COMPACTION_DIGEST_MARKER);
+        return digest.digest();
+    }
+
+    /**
+     * Writes compact binary snapshot of this transformer. Transformer loaded from the snapshot
+     * by {@link #loadSnapshot(File, boolean, boolean)} behaves identically but it doesn't need to be built.
+     *
+     * @param os stream to write the snapshot to, it is not closed
+     * @throws IOException if some I/O error occurs
+     */
+    public void writeSnapshot(final OutputStream os) throws IOException {
+        TransformerSnapshot.write(mappingFrom, mappingTo, automaton, os);
+    }
+
+    /**
+     * Loads transformer from memory mapped snapshot written by {@link #writeSnapshot(OutputStream)}.
+     *
+     * @param snapshot snapshot file
+     * @param statistics whether to collect transformation statistics, see {@link #getStatistics()}
+     * @param compaction whether to remove duplicate <code>constant pool</code> items, see {@link Builder#enableCompaction()}
+     * @return loaded transformer
+     * @throws IOException if snapshot couldn't be read or it is corrupted
+     */
+    public static Transformer loadSnapshot(final File snapshot, final boolean statistics, final boolean compaction) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            return TransformerSnapshot.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), statistics, compaction);
+        }
+    }
+
+    /**
+     * Returns transformation statistics.
+     *
+     * @return transformation statistics or <code>null</code> if statistics were not enabled
+     */
+    public TransformerStats getStatistics() {
+        return stats;
+    }
+
+    /**
+     * Returns SHA-256 digest of the mapping configuration. Returned array must not be modified.
+     *
+     * @return mapping configuration digest
+     */
+    byte[] getMappingDigest() {
+        return mappingDigest;
+    }
+
+    /**
+     * Returns whether duplicate <code>constant pool</code> items are removed from modified classes.
+     *
+     * @return <code>true</code> if compaction is enabled, <code>false</code> otherwise
+     */
+    boolean isCompactionEnabled() {
+        return compaction;
+    }
+
+    /**
+     * Returns automaton matching all search strings.
+     *
+     * @return compiled search strings
+     */
+    Automaton getAutomaton() {
+        return automaton;
+    }
+
+    /**
+     * Returns search strings indexed from <code>one</code>. Returned array must not be modified.
+     *
+     * @return modified UTF-8 encoded search strings
+     */
+    byte[][] getMappingFrom() {
+        return mappingFrom;
+    }
+
+    /**
+     * Returns patch strings indexed from <code>one</code>. Returned array must not be modified.
+     *
+     * @return modified UTF-8 encoded patch strings
+     */
+    byte[][] getMappingTo() {
+        return mappingTo;
     }
 
     /**
@@ -86,184 +224,401 @@ public final class Transformer {
      * @return either original class byte code if mapping wasn't applied or modified class byte code if mapping was applied
      */
     public byte[] transform(final byte[] clazz) {
-        final int[] constantPool = getConstantPool(clazz);
-        int diffInBytes = 0, position, utf8Length;
-        byte tag;
-        List<int[]> patches = null;
-        int[] patch;
-
-        for (int i = 1; i < constantPool.length; i++) {
-            position = constantPool[i];
-            if (position == 0) continue;
-            tag = clazz[position++];
-            if (tag == UTF8) {
-                utf8Length = readUnsignedShort(clazz, position);
-                position += 2;
-                patch = getPatch(clazz, position, position + utf8Length, i);
-                if (patch != null) {
-                    if (patches == null) {
-                        patches = new ArrayList<>(countUtf8Items(clazz, constantPool));
-                    }
-                    diffInBytes += patch[0] & PATCH_MASK;
-                    patches.add(patch);
+        final ClassTransformedEvent event = new ClassTransformedEvent();
+        event.begin();
+        final PatchBuffer patches = PatchBuffer.acquire();
+        try {
+            if (!findPatches(clazz, 0, clazz.length, patches)) {
+                commit(event, clazz, 0, clazz.length, patches);
+                return clazz;
+            }
+            final ClassOutputStream newClass = new ClassOutputStream(clazz.length + patches.diffInBytes);
+            applyPatches(clazz, 0, clazz.length, patches, newClass);
+            final int newLength = compact(newClass.buffer, clazz.length, patches);
+            commit(event, clazz, 0, clazz.length, patches);
+            return newLength == newClass.buffer.length ? newClass.buffer : Arrays.copyOf(newClass.buffer, newLength);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e); // never happens
+        } finally {
+            patches.release();
+        }
+    }
+
+    /**
+     * Transforms class byte code and writes it to the given stream. Regions not affected by mapping
+     * are written directly from the original class byte code, only modified <code>CONSTANT_Utf8_info</code>
+     * structures are assembled during writing. No copy of the class byte code is created.
+     *
+     * @param clazz array holding class byte code to be investigated if mapping should be applied
+     * @param offset the index of the first class byte code byte inside the array
+     * @param length count of class byte code bytes
+     * @param target stream to write either original or modified class byte code to
+     * @return <code>true</code> if mapping was applied, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    public boolean transform(final byte[] clazz, final int offset, final int length, final OutputStream target) throws IOException {
+        final ClassTransformedEvent event = new ClassTransformedEvent();
+        event.begin();
+        final PatchBuffer patches = PatchBuffer.acquire();
+        try {
+            if (!findPatches(clazz, offset, offset + length, patches)) {
+                target.write(clazz, offset, length);
+                commit(event, clazz, offset, length, patches);
+                return false;
+            }
+            if (compaction) {
+                final ClassOutputStream newClass = new ClassOutputStream(length + patches.diffInBytes);
+                applyPatches(clazz, offset, offset + length, patches, newClass);
+                target.write(newClass.buffer, 0, compact(newClass.buffer, length, patches));
+            } else {
+                applyPatches(clazz, offset, offset + length, patches, target);
+            }
+            commit(event, clazz, offset, length, patches);
+            return true;
+        } finally {
+            patches.release();
+        }
+    }
+
+    /**
+     * Transforms class byte code and writes it to the given channel.
+     * Class byte code are the remaining bytes of the buffer. After this method returns buffer position equals to its limit.
+     * Heap buffers are investigated in place, direct buffers are copied to the heap first.
+     *
+     * @param clazz buffer holding class byte code to be investigated if mapping should be applied
+     * @param target blocking channel to write either original or modified class byte code to
+     * @return <code>true</code> if mapping was applied, <code>false</code> otherwise
+     * @throws IOException if some I/O error occurs
+     */
+    public boolean transform(final ByteBuffer clazz, final WritableByteChannel target) throws IOException {
+        final int length = clazz.remaining();
+        final byte[] array;
+        final int offset;
+        if (clazz.hasArray()) {
+            array = clazz.array();
+            offset = clazz.arrayOffset() + clazz.position();
+        } else {
+            array = new byte[length];
+            clazz.duplicate().get(array);
+            offset = 0;
+        }
+        clazz.position(clazz.limit());
+        return transform(array, offset, length, Channels.newOutputStream(target));
+    }
+
+    /**
+     * Removes duplicate <code>constant pool</code> items from modified class if compaction is enabled.
+     *
+     * @param newClass modified class byte code, compacted in place
+     * @param oldLength original class byte code length
+     * @param patches applied patches, their size difference is updated to reflect compaction
+     * @return modified class byte code length after compaction
+     */
+    private int compact(final byte[] newClass, final int oldLength, final PatchBuffer patches) {
+        if (!compaction) return newClass.length;
+        final int newLength = ConstantPoolCompactor.compact(newClass, 0, newClass.length);
+        patches.diffInBytes = newLength - oldLength;
+        return newLength;
+    }
+
+    /**
+     * Records class transformation event if flight recorder is recording it.
+     *
+     * @param event class transformation event
+     * @param clazz array holding class byte code
+     * @param offset the index of the first class byte code byte inside the array
+     * @param length count of class byte code bytes
+     * @param patches applied patches
+     */
+    private static void commit(final ClassTransformedEvent event, final byte[] clazz, final int offset, final int length, final PatchBuffer patches) {
+        if (!event.shouldCommit()) return;
+        event.className = getClassName(clazz, offset, patches);
+        event.inputSize = length;
+        event.outputSize = length + patches.diffInBytes;
+        final int[] records = patches.records;
+        for (int record = 0; record < patches.size; record += 4 + 2 * records[record + 3]) {
+            event.matches += records[record + 3];
+        }
+        event.commit();
+    }
+
+    /**
+     * Fast rejection test. Returns <code>false</code> if class byte code cannot be modified by this transformer,
+     * <code>true</code> if it might be modified.
+     *
+     * @param clazz class byte code
+     * @return <code>false</code> if {@link #transform(byte[])} would return original class byte code, <code>true</code> otherwise
+     */
+    boolean mayTransform(final byte[] clazz) {
+        return automaton.mayMatch(clazz, POOL_CONTENT_INDEX, clazz.length);
+    }
+
+    /**
+     * Reports mapping matches in class byte code without transforming it. Nothing is allocated for classes without matches.
+     *
+     * @param clazz array holding class byte code to be investigated
+     * @param offset the index of the first class byte code byte inside the array
+     * @param length count of class byte code bytes
+     * @param listener listener to report matches to
+     * @return <code>true</code> if some match was found, <code>false</code> otherwise
+     */
+    boolean analyze(final byte[] clazz, final int offset, final int length, final MatchListener listener) {
+        final PatchBuffer patches = PatchBuffer.acquire();
+        try {
+            if (!findPatches(clazz, offset, offset + length, patches)) return false;
+            final String className = getClassName(clazz, offset, patches);
+            final int[] records = patches.records;
+            int poolIndex, patchesCount;
+            for (int record = 0; record < patches.size; ) {
+                poolIndex = records[record];
+                patchesCount = records[record + 3];
+                record += 4;
+                for (int i = 0; i < patchesCount; i++, record += 2) {
+                    listener.match(className, poolIndex, records[record]);
                 }
             }
+            return true;
+        } finally {
+            patches.release();
+        }
+    }
+
+    /**
+     * Detects patches to be applied to the class. Constant pool is parsed and its <code>CONSTANT_Utf8_info</code> structures
+     * are scanned in single forward pass. Constant pool item pointers are not materialized, see {@link #getClassName(byte[], int, PatchBuffer)}.
+     *
+     * @param clazz array holding class byte code
+     * @param offset the index of the first class byte code byte inside the array
+     * @param limit first index not belonging to class byte code
+     * @param patches buffer to record detected patches to
+     * @return <code>true</code> if some patches were detected, <code>false</code> otherwise
+     */
+    private boolean findPatches(final byte[] clazz, final int offset, final int limit, final PatchBuffer patches) {
+        final long start = stats != null ? System.nanoTime() : 0;
+        if (!automaton.mayMatch(clazz, offset + POOL_CONTENT_INDEX, limit)) {
+            if (stats != null) stats.recordScan(0, 0, 0, System.nanoTime() - start);
+            return false;
         }
-        if (diffInBytes > 0 && Integer.MAX_VALUE - diffInBytes < clazz.length) {
+        final long parsingStart = stats != null ? System.nanoTime() : 0;
+        final ConstantPoolParsedEvent event = new ConstantPoolParsedEvent();
+        event.begin();
+        final int constantPoolSize = readUnsignedShort(clazz, offset + POOL_SIZE_INDEX);
+        int position = offset + POOL_CONTENT_INDEX, utf8Length, utf8Items = 0;
+        long utf8Bytes = 0;
+
+        for (int i = 1; i < constantPoolSize; i++) {
+            switch (clazz[position]) {
+                case UTF8:
+                    utf8Length = readUnsignedShort(clazz, position + 1);
+                    position += 3;
+                    findPatches(clazz, position, position + utf8Length, i, patches);
+                    position += utf8Length;
+                    utf8Items++;
+                    utf8Bytes += utf8Length;
+                    break;
+                case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE:
+                    position += 3;
+                    break;
+                case LONG: case DOUBLE:
+                    position += 9;
+                    i++;
+                    break;
+                case INTEGER: case FLOAT: case FIELD_REF: case METHOD_REF: case INTERFACE_METHOD_REF: case NAME_AND_TYPE: case DYNAMIC: case INVOKE_DYNAMIC:
+                    position += 5;
+                    break;
+                case METHOD_HANDLE:
+                    position += 4;
+                    break;
+                default:
+                    throw new UnsupportedClassVersionError();
+            }
+        }
+        event.end();
+        if (stats != null) {
+            stats.recordScan(utf8Items, utf8Bytes, System.nanoTime() - parsingStart, parsingStart - start);
+        }
+        if (event.shouldCommit()) {
+            event.classSize = limit - offset;
+            event.constantPoolCount = constantPoolSize;
+            event.utf8Items = utf8Items;
+            event.utf8Bytes = utf8Bytes;
+            event.commit();
+        }
+        if (patches.size == 0) return false;
+        if (patches.diffInBytes > 0 && Integer.MAX_VALUE - patches.diffInBytes < limit - offset) {
             throw new UnsupportedOperationException("Couldn't patch class file. The transformed class file would exceed max allowed size " + Integer.MAX_VALUE + " bytes");
         }
-        String thisClass = null;
-        if (DEBUG && patches != null) {
-            final int thisClassPoolIndex = readUnsignedShort(clazz, constantPool[0] + 2);
-            final int thisClassUtf8Position = constantPool[readUnsignedShort(clazz, constantPool[thisClassPoolIndex] + 1)];
-            final int thisClassUtf8Length = readUnsignedShort(clazz, thisClassUtf8Position + 1);
-            if (DEBUG) {
-                synchronized (System.out) {
-                    thisClass = utf8ToString(clazz, thisClassUtf8Position + 3, thisClassUtf8Position + thisClassUtf8Length + 3);
-                    System.out.println("[" + currentThread() + "] Patching class " + thisClass + " - START");
-                }
+        return true;
+    }
+
+    /**
+     * Returns internal name of the class. Constant pool item pointers are materialized on first use and retained in patch buffer.
+     *
+     * @param clazz array holding class byte code
+     * @param offset the index of the first class byte code byte inside the array
+     * @param patches patch buffer of the class
+     * @return internal class name
+     */
+    private static String getClassName(final byte[] clazz, final int offset, final PatchBuffer patches) {
+        if (patches.constantPool == null) patches.constantPool = getConstantPool(clazz, offset);
+        return ClassFileUtils.getClassName(clazz, patches.constantPool);
+    }
+
+    /**
+     * Detects patches to be applied to <code>CONSTANT_Utf8_info</code> structure and records them to patch buffer.
+     * Every patched structure is recorded in the following format:
+     * <p>
+     *     <pre>
+     *        +-----------+
+     *        | integer 0 | <code>CONSTANT_Utf8_info</code> index inside <code>constant pool</code> table
+     *        +-----------+
+     *        | integer 1 | index of <code>CONSTANT_Utf8_info</code> structure bytes section inside class byte code array
+     *        +-----------+
+     *        | integer 2 | <code>CONSTANT_Utf8_info</code> structure difference in bytes after applied patches
+     *        +-----------+
+     *        | integer 3 | count <code>N</code> of patches applied to <code>CONSTANT_Utf8_info</code> structure
+     *        +-----------+
+     *        | integer 4 | non-zero mapping index in mapping tables of 1-st applied patch
+     *        +-----------+
+     *        | integer 5 | index of 1-st patch start inside bytes section of original <code>CONSTANT_Utf8_info</code> structure
+     *        +-----------+
+     *        |    ...    | etc till N-th applied patch
+     *        +-----------+
+     *     </pre>
+     * </p>
+     *
+     * @param clazz class byte code
+     * @param offset beginning index of <code>CONSTANT_Utf8_info</code> structure bytes section being investigated
+     * @param limit first index not belonging to investigated <code>CONSTANT_Utf8_info</code> structure
+     * @param poolIndex <code>CONSTANT_Utf8_info</code> index inside <code>constant pool</code> table
+     * @param patches buffer to record detected patches to
+     */
+    private void findPatches(final byte[] clazz, final int offset, final int limit, final int poolIndex, final PatchBuffer patches) {
+        int header = -1;
+        int mappingIndex, start, diffInBytes = 0;
+        long match;
+
+        for (int i = offset; (match = automaton.find(clazz, i, limit)) != Automaton.NO_MATCH; i = start + mappingFrom[mappingIndex].length) {
+            start = (int) (match >>> 32);
+            mappingIndex = (int) match;
+            if (header < 0) {
+                header = patches.size;
+                patches.add(poolIndex, offset, 0, 0);
             }
+            patches.add(mappingIndex, start - offset);
+            if (stats != null) stats.recordMatch(mappingIndex);
+            patches.records[header + 3]++;
+            diffInBytes += mappingTo[mappingIndex].length - mappingFrom[mappingIndex].length;
         }
-        try {
-            return patches == null ? clazz : applyPatches(clazz, clazz.length + diffInBytes, constantPool, patches);
-        } finally {
-            if (DEBUG && patches != null) {
-                synchronized (System.out) {
-                    System.out.println("[" + currentThread() + "] Patching class " + thisClass + " - END");
-                }
+
+        if (header >= 0) {
+            if (limit - offset + diffInBytes > MAX_UTF8_LENGTH) {
+                throw new UnsupportedOperationException("Couldn't patch class file. The transformed CONSTANT_Utf8_info structure would exceed max allowed size " + MAX_UTF8_LENGTH + " bytes");
             }
+            patches.records[header + 2] = diffInBytes;
+            patches.diffInBytes += diffInBytes;
         }
     }
 
     /**
-     * Returns modified class byte code with patches applied.
+     * Writes modified class byte code with patches applied.
      *
-     * @param oldClass original class byte code
-     * @param newClassSize count of bytes of new class byte code
-     * @param oldClassConstantPool pointers to old class constant pool items
+     * @param oldClass array holding original class byte code
+     * @param oldClassOffset the index of the first original class byte code byte inside the array
+     * @param oldClassLimit first index not belonging to original class byte code
      * @param patches patches to apply
-     * @return modified class byte code with patches applied
-     */
-    private byte[] applyPatches(final byte[] oldClass, final int newClassSize, final int[] oldClassConstantPool, final List<int[]> patches) {
-        final byte[] newClass = new byte[newClassSize];
-        int oldClassOffset = 0, newClassOffset = 0;
-        int length, mappingIndex, oldUtf8ItemBytesSectionOffset, oldUtf8ItemLength, patchOffset;
-        int debugOldUtf8ItemOffset = -1, debugNewUtf8ItemOffset = -1;
-        int debugOldUtf8ItemLength = -1, debugNewUtf8ItemLength = -1;
-
-        // First copy magic, version and constant pool size
-        arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, POOL_CONTENT_INDEX);
-        oldClassOffset = newClassOffset = POOL_CONTENT_INDEX;
-
-        for (int[] patch : patches) {
-            if (patch == null) break;
-            oldUtf8ItemBytesSectionOffset = oldClassConstantPool[patch[0] >>> 16] + 3;
-            // copy till start of next utf8 item bytes section
-            length = oldUtf8ItemBytesSectionOffset - oldClassOffset;
-            arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
-            oldClassOffset += length;
-            newClassOffset += length;
-            if (DEBUG) {
-                debugOldUtf8ItemOffset = oldClassOffset;
-                debugNewUtf8ItemOffset = newClassOffset;
+     * @param newClass stream to write modified class byte code to
+     * @throws IOException if some I/O error occurs
+     */
+    private void applyPatches(final byte[] oldClass, int oldClassOffset, final int oldClassLimit, final PatchBuffer patches, final OutputStream newClass) throws IOException {
+        final int[] records = patches.records;
+        final long start = stats != null ? System.nanoTime() : 0;
+        int length, mappingIndex, oldUtf8ItemBytesSectionOffset, oldUtf8ItemLength, newUtf8ItemLength, patchesCount, patchOffset;
+        String thisClass = null;
+
+        if (DEBUG) {
+            synchronized (System.out) {
+                thisClass = getClassName(oldClass, oldClassOffset, patches);
+                System.out.println("[" + currentThread() + "] Patching class " + thisClass + " - START");
             }
+        }
+
+        for (int record = 0; record < patches.size; ) {
+            final int patchStart = record;
+            oldUtf8ItemBytesSectionOffset = records[record + 1];
+            // copy till start of utf8 item length
+            length = oldUtf8ItemBytesSectionOffset - 2 - oldClassOffset;
+            newClass.write(oldClass, oldClassOffset, length);
+            oldClassOffset += length + 2;
             // patch utf8 item length
             oldUtf8ItemLength = readUnsignedShort(oldClass, oldClassOffset - 2);
-            writeUnsignedShort(newClass, newClassOffset - 2, oldUtf8ItemLength + (patch[0] & PATCH_MASK));
+            newUtf8ItemLength = oldUtf8ItemLength + records[record + 2];
+            newClass.write(newUtf8ItemLength >>> 8);
+            newClass.write(newUtf8ItemLength);
             // apply utf8 info bytes section patches
-            for (int i = 1; i < patch.length; i++) {
-                mappingIndex = patch[i] >>> 16;
-                if (mappingIndex == 0) break;
-                patchOffset = patch[i] & PATCH_MASK;
+            patchesCount = records[record + 3];
+            record += 4;
+            for (int i = 0; i < patchesCount; i++, record += 2) {
+                mappingIndex = records[record];
+                patchOffset = records[record + 1];
                 // copy till begin of patch
                 length = patchOffset - (oldClassOffset - oldUtf8ItemBytesSectionOffset);
-                arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
+                newClass.write(oldClass, oldClassOffset, length);
                 oldClassOffset += length;
-                newClassOffset += length;
                 // apply patch
-                arraycopy(mappingTo[mappingIndex], 0, newClass, newClassOffset, mappingTo[mappingIndex].length);
+                newClass.write(mappingTo[mappingIndex]);
                 oldClassOffset += mappingFrom[mappingIndex].length;
-                newClassOffset += mappingTo[mappingIndex].length;
             }
             // copy remaining class byte code till utf8 item end
             length = oldUtf8ItemBytesSectionOffset + oldUtf8ItemLength - oldClassOffset;
-            arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, length);
+            newClass.write(oldClass, oldClassOffset, length);
             oldClassOffset += length;
-            newClassOffset += length;
             if (DEBUG) {
-                synchronized (System.out) {
-                    System.out.println("[" + currentThread() + "] Patching UTF-8 constant pool item on position: " + (patch[0] >>> 16));
-                    debugOldUtf8ItemLength = readUnsignedShort(oldClass, debugOldUtf8ItemOffset - 2);
-                    System.out.println("[" + currentThread() + "] old value: " + utf8ToString(oldClass, debugOldUtf8ItemOffset, debugOldUtf8ItemOffset + debugOldUtf8ItemLength));
-                    debugNewUtf8ItemLength = readUnsignedShort(newClass, debugNewUtf8ItemOffset - 2);
-                    System.out.println("[" + currentThread() + "] new value: " + utf8ToString(newClass, debugNewUtf8ItemOffset, debugNewUtf8ItemOffset + debugNewUtf8ItemLength));
-                }
+                debugPatch(oldClass, oldUtf8ItemLength, newUtf8ItemLength, records, patchStart);
             }
         }
 
         // copy remaining class byte code
-        arraycopy(oldClass, oldClassOffset, newClass, newClassOffset, oldClass.length - oldClassOffset);
+        newClass.write(oldClass, oldClassOffset, oldClassLimit - oldClassOffset);
 
-        return newClass;
+        if (stats != null) {
+            stats.recordPatch(patches.diffInBytes, System.nanoTime() - start);
+        }
+        if (DEBUG) {
+            synchronized (System.out) {
+                System.out.println("[" + currentThread() + "] Patching class " + thisClass + " - END");
+            }
+        }
     }
 
     /**
-     * Returns <code>patch info</code> if patches were detected or <code>null</code> if there is no patch applicable.
-     * Every <code>patch info</code> has the following format:
-     * <p>
-     *     <pre>
-     *        +-----------+
-     *        | integer 0 | first two bytes hold <code>Constant_Utf8_info</code> index inside <code>constant pool</code> table
-     *        |           | second two bytes hold <code>CONSTANT_Utf8_info</code> structure difference in bytes after applied patches
-     *        +-----------+
-     *        | integer 1 | first two bytes hold non-zero mapping index in mapping tables of 1-st applied patch
-     *        |           | last two bytes hold index of 1-st patch start inside bytes section of original <code>CONSTANT_Utf8_info</code> structure
-     *        +-----------+
-     *        | integer 2 | first two bytes hold non-zero mapping index in mapping tables of 2-nd applied patch
-     *        |           | last two bytes hold index of 2-nd patch start inside bytes section of original <code>CONSTANT_Utf8_info</code> structure
-     *        +-----------+
-     *        |    ...    | etc
-     *        |           |
-     *        +-----------+
-     *        | integer N | first two bytes of mapping index equal to zero indicate premature <code>patch info</code> structure end
-     *        |           |
-     *        +-----------+
-     *     </pre>
-     * </p>
+     * Prints old and new value of patched <code>CONSTANT_Utf8_info</code> structure.
      *
-     * @param clazz class byte code
-     * @param offset beginning index of <code>CONSTANT_Utf8_info</code> structure being investigated
-     * @param limit first index not belonging to investigated <code>CONSTANT_Utf8_info</code> structure
-     * @return
-     */
-    private int[] getPatch(final byte[] clazz, final int offset, final int limit, final int poolIndex) {
-        int[] retVal = null;
-        int mappingIndex;
-        int patchIndex = 1;
-
-        for (int i = offset; i <= limit - minimum; i++) {
-            for (int j = 1; j < mappingFrom.length; j++) {
-                if (limit - i < mappingFrom[j].length) continue;
-                mappingIndex = j;
-                for (int k = 0; k < mappingFrom[j].length; k++) {
-                    if (clazz[i + k] != mappingFrom[j][k]) {
-                        mappingIndex = 0;
-                        break;
-                    }
-                }
-                if (mappingIndex != 0) {
-                    if (retVal == null) {
-                        retVal = new int[((limit - i) / minimum) + 1];
-                        retVal[0] = poolIndex << 16;
-                    }
-                    retVal[patchIndex++] = mappingIndex << 16 | (i - offset);
-                    retVal[0] += mappingTo[mappingIndex].length - mappingFrom[mappingIndex].length;
-                    i += mappingFrom[j].length;
-                }
-            }
+     * @param oldClass original class byte code
+     * @param oldLength original <code>CONSTANT_Utf8_info</code> structure bytes section length
+     * @param newLength patched <code>CONSTANT_Utf8_info</code> structure bytes section length
+     * @param records patch records
+     * @param record index of patched <code>CONSTANT_Utf8_info</code> structure record
+     */
+    private void debugPatch(final byte[] oldClass, final int oldLength, final int newLength, final int[] records, final int record) {
+        final int offset = records[record + 1];
+        final byte[] newValue = new byte[newLength];
+        int oldIndex = offset, newIndex = 0, mappingIndex, length;
+        for (int i = 0; i < records[record + 3]; i++) {
+            mappingIndex = records[record + 4 + 2 * i];
+            length = offset + records[record + 5 + 2 * i] - oldIndex;
+            arraycopy(oldClass, oldIndex, newValue, newIndex, length);
+            newIndex += length;
+            arraycopy(mappingTo[mappingIndex], 0, newValue, newIndex, mappingTo[mappingIndex].length);
+            newIndex += mappingTo[mappingIndex].length;
+            oldIndex += length + mappingFrom[mappingIndex].length;
+        }
+        arraycopy(oldClass, oldIndex, newValue, newIndex, offset + oldLength - oldIndex);
+        synchronized (System.out) {
+            System.out.println("[" + currentThread() + "] Patching UTF-8 constant pool item on position: " + records[record]);
+            System.out.println("[" + currentThread() + "] old value: " + utf8ToString(oldClass, offset, offset + oldLength));
+            System.out.println("[" + currentThread() + "] new value: " + utf8ToString(newValue, 0, newLength));
         }
-
-        return retVal;
     }
 
     /**
@@ -281,9 +636,11 @@ public final class Transformer {
      * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
      */
     public static final class Builder {
-        private static final int MAX_MAPPINGS = 0xFFFF;
         private final Thread thread;
         private final Map<String, String> mapping;
+        private boolean statistics;
+        private boolean longestMatch;
+        private boolean compaction;
         private boolean built;
 
         private Builder() {
@@ -298,12 +655,11 @@ public final class Transformer {
          * @param to string to be replaced with
          * @return this builder instance
          * @throws ConcurrentModificationException if builder instance is used by multiple threads
-         * @throws IllegalStateException if {@link #build()} have been already called or if mappings count surpasses value <code>65535</code>
+         * @throws IllegalStateException if {@link #build()} have been already called
          * @throws IllegalArgumentException if any method parameter is <code>null</code>
          * or if any method parameter equals to <code>empty string</code>
          * or if method parameters define identity mapping
-         * or if <code>from</code> parameter is substring of previously registered mapping
-         * of if previously registered mapping is substring of <code>from</code> parameter
+         * or if <code>from</code> parameter was already registered
          */
         public Builder addMapping(final String from, final String to) {
             // preconditions
@@ -312,15 +668,63 @@ public final class Transformer {
             if (from == null || to == null) throw new IllegalArgumentException();
             if (from.length() == 0 || to.length() == 0) throw new IllegalArgumentException();
             if (from.equals(to)) throw new IllegalArgumentException();
+            if (mapping.containsKey(from)) throw new IllegalArgumentException();
             // implementation
-            for (String key : mapping.keySet()) {
-                if (key.contains(from) || from.contains(key)) throw new IllegalArgumentException();
-            }
-            if (mapping.size() > MAX_MAPPINGS) throw new IllegalStateException();
             mapping.put(from, to);
             return this;
         }
 
+        /**
+         * Allows mappings being substrings of each other. Leftmost match wins then
+         * and if more mappings match at the same position the longest one wins.
+         * Without this option {@link #build()} rejects such mappings.
+         *
+         * @return this builder instance
+         * @throws ConcurrentModificationException if builder instance is used by multiple threads
+         * @throws IllegalStateException if {@link #build()} have been already called
+         */
+        public Builder enableLongestMatch() {
+            // preconditions
+            if (thread != currentThread()) throw new ConcurrentModificationException();
+            if (built) throw new IllegalStateException();
+            // implementation
+            longestMatch = true;
+            return this;
+        }
+
+        /**
+         * Enables collection of transformation statistics. See {@link Transformer#getStatistics()}.
+         *
+         * @return this builder instance
+         * @throws ConcurrentModificationException if builder instance is used by multiple threads
+         * @throws IllegalStateException if {@link #build()} have been already called
+         */
+        public Builder enableStatistics() {
+            // preconditions
+            if (thread != currentThread()) throw new ConcurrentModificationException();
+            if (built) throw new IllegalStateException();
+            // implementation
+            statistics = true;
+            return this;
+        }
+
+        /**
+         * Enables removal of duplicate <code>constant pool</code> items from modified classes. Classes compiled against
+         * both original and mapped names end up with such duplicates after mapping was applied.
+         *
+         * @return this builder instance
+         * @throws ConcurrentModificationException if builder instance is used by multiple threads
+         * @throws IllegalStateException if {@link #build()} have been already called
+         */
+        public Builder enableCompaction() {
+            // preconditions
+            if (thread != currentThread()) throw new ConcurrentModificationException();
+            if (built) throw new IllegalStateException();
+            // implementation
+            compaction = true;
+            return this;
+        }
+
         /**
          * Creates new configured class file transformer.
          *
@@ -328,6 +732,8 @@ public final class Transformer {
          * @throws ConcurrentModificationException if builder instance is used by multiple threads
          * @throws IllegalStateException if {@link #build()} have been already called
          * or {@link #addMapping(String, String)} wasn't called before
+         * @throws IllegalArgumentException if some mapping is substring of another mapping
+         * and {@link #enableLongestMatch()} wasn't called before
          */
         public Transformer build() {
             // preconditions
@@ -340,16 +746,103 @@ public final class Transformer {
             final byte[][] mappingFrom = new byte[mappingSize][];
             final byte[][] mappingTo = new byte[mappingSize][];
             int i = 1;
-            int minimum = Integer.MAX_VALUE;
-            for (Map.Entry<String, String> mappingEntry : mapping.entrySet()) {
+            for (Map.Entry<String, String> mappingEntry : new TreeMap<>(mapping).entrySet()) {
                 mappingFrom[i] = stringToUtf8(mappingEntry.getKey());
                 mappingTo[i] = stringToUtf8(mappingEntry.getValue());
-                if (minimum > mappingFrom[i].length) {
-                    minimum = mappingFrom[i].length;
-                }
                 i++;
             }
-            return new Transformer(mappingFrom, mappingTo, minimum);
+            return new Transformer(mappingFrom, mappingTo, Automaton.compile(mappingFrom, longestMatch), statistics, compaction);
+        }
+    }
+
+    /**
+     * Receives mapping matches found by {@link #analyze(byte[], int, int, MatchListener)}.
+     */
+    interface MatchListener {
+        /**
+         * Called for every mapping match.
+         *
+         * @param className internal name of the investigated class
+         * @param poolIndex index of matching <code>CONSTANT_Utf8_info</code> inside <code>constant pool</code> table
+         * @param mappingIndex index of matched mapping, see {@link #getMappingFrom()}
+         */
+        void match(String className, int poolIndex, int mappingIndex);
+    }
+
+    /**
+     * Growable buffer of patch records. Every thread reuses its own buffer so patch detection doesn't allocate.
+     */
+    private static final class PatchBuffer {
+        private static final int INITIAL_CAPACITY = 256;
+        private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+        private static final ThreadLocal<PatchBuffer> BUFFERS = new ThreadLocal<>();
+        private int[] records = new int[INITIAL_CAPACITY];
+        private int size;
+        private int diffInBytes;
+        private int[] constantPool;
+        private boolean inUse;
+
+        /**
+         * Returns patch buffer of current thread or new patch buffer if the one of current thread is already in use.
+         * The latter happens e.g. when class loading is triggered from within the transformation on the same thread.
+         *
+         * @return patch buffer
+         */
+        private static PatchBuffer acquire() {
+            PatchBuffer retVal = BUFFERS.get();
+            if (retVal == null) {
+                retVal = new PatchBuffer();
+                BUFFERS.set(retVal);
+            } else if (retVal.inUse) {
+                return new PatchBuffer();
+            }
+            retVal.inUse = true;
+            return retVal;
+        }
+
+        private void release() {
+            size = 0;
+            diffInBytes = 0;
+            constantPool = null;
+            if (records.length > MAX_RETAINED_CAPACITY) records = new int[INITIAL_CAPACITY];
+            inUse = false;
+        }
+
+        private void add(final int value0, final int value1) {
+            if (size + 2 > records.length) records = Arrays.copyOf(records, records.length * 2);
+            records[size++] = value0;
+            records[size++] = value1;
+        }
+
+        private void add(final int value0, final int value1, final int value2, final int value3) {
+            if (size + 4 > records.length) records = Arrays.copyOf(records, records.length * 2);
+            records[size++] = value0;
+            records[size++] = value1;
+            records[size++] = value2;
+            records[size++] = value3;
+        }
+    }
+
+    /**
+     * Output stream writing to preallocated array of exact modified class byte code size.
+     */
+    private static final class ClassOutputStream extends OutputStream {
+        private final byte[] buffer;
+        private int count;
+
+        private ClassOutputStream(final int size) {
+            buffer = new byte[size];
+        }
+
+        @Override
+        public void write(final int b) {
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            arraycopy(b, off, buffer, count, len);
+            count += len;
         }
     }
 
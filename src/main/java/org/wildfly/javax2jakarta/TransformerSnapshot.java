@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary snapshot of built {@link Transformer}. Loading it skips parsing and sorting the mappings
+ * and compiling the automaton, the arrays are only copied out of the snapshot and validated.
+ * Snapshot layout, all numbers are big endian integers and arrays are preceded with their length:
+ * <pre>
+ *   +-----------------+
+ *   | magic           |
+ *   +-----------------+
+ *   | version         |
+ *   +-----------------+
+ *   | mappings count  | <code>N</code>
+ *   +-----------------+
+ *   | mappings        | <code>N</code> pairs of modified UTF-8 encoded search and patch byte arrays
+ *   +-----------------+
+ *   | automaton       | see {@link Automaton#write(DataOutputStream)}
+ *   +-----------------+
+ *   | checksum        | CRC-32 of all preceding bytes
+ *   +-----------------+
+ * </pre>
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class TransformerSnapshot {
+
+    private static final int MAGIC = 0x4A324A53;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int CHECKSUM_SIZE = 4;
+
+    /**
+     * Constructor.
+     */
+    private TransformerSnapshot() {
+        // forbidden instantiation
+    }
+
+    /**
+     * Writes transformer snapshot.
+     *
+     * @param mappingFrom search strings indexed from <code>one</code>
+     * @param mappingTo patch strings indexed from <code>one</code>
+     * @param automaton compiled search strings
+     * @param os stream to write the snapshot to, it is not closed
+     * @throws IOException if some I/O error occurs
+     */
+    static void write(final byte[][] mappingFrom, final byte[][] mappingTo, final Automaton automaton, final OutputStream os) throws IOException {
+        final BufferedOutputStream bos = new BufferedOutputStream(os);
+        final CRC32 checksum = new CRC32();
+        final DataOutputStream dos = new DataOutputStream(new CheckedOutputStream(bos, checksum));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(mappingFrom.length - 1);
+        for (int i = 1; i < mappingFrom.length; i++) {
+            writeBytes(dos, mappingFrom[i]);
+            writeBytes(dos, mappingTo[i]);
+        }
+        automaton.write(dos);
+        dos.flush();
+        new DataOutputStream(bos).writeInt((int) checksum.getValue());
+        bos.flush();
+    }
+
+    /**
+     * Reads transformer snapshot.
+     *
+     * @param snapshot buffer holding the snapshot
+     * @param statistics whether to collect transformation statistics
+     * @param compaction whether to remove duplicate constant pool items from modified classes
+     * @return transformer
+     * @throws IOException if snapshot is corrupted or of unsupported version
+     */
+    static Transformer read(final ByteBuffer snapshot, final boolean statistics, final boolean compaction) throws IOException {
+        final ByteBuffer buffer = snapshot.duplicate().order(ByteOrder.BIG_ENDIAN);
+        check(buffer.remaining() >= HEADER_SIZE + CHECKSUM_SIZE);
+        final ByteBuffer content = buffer.duplicate();
+        content.limit(buffer.limit() - CHECKSUM_SIZE);
+        final CRC32 checksum = new CRC32();
+        checksum.update(content);
+        check(buffer.getInt(buffer.limit() - CHECKSUM_SIZE) == (int) checksum.getValue());
+        buffer.limit(buffer.limit() - CHECKSUM_SIZE);
+        check(buffer.getInt() == MAGIC);
+        final int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported transformer snapshot version " + version);
+        try {
+            final int mappingsCount = buffer.getInt();
+            check(mappingsCount > 0 && mappingsCount <= buffer.remaining() / 8);
+            final byte[][] mappingFrom = new byte[mappingsCount + 1][];
+            final byte[][] mappingTo = new byte[mappingsCount + 1][];
+            for (int i = 1; i <= mappingsCount; i++) {
+                mappingFrom[i] = readBytes(buffer);
+                mappingTo[i] = readBytes(buffer);
+                check(mappingFrom[i].length > 0 && mappingTo[i].length > 0);
+            }
+            final Automaton automaton = Automaton.read(buffer, mappingFrom);
+            check(!buffer.hasRemaining());
+            return new Transformer(mappingFrom, mappingTo, automaton, statistics, compaction);
+        } catch (final BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupted transformer snapshot", e);
+        }
+    }
+
+    /**
+     * Validates snapshot content.
+     *
+     * @param condition condition satisfied by valid snapshot
+     * @throws IOException if condition is not satisfied
+     */
+    static void check(final boolean condition) throws IOException {
+        if (!condition) throw new IOException("Corrupted transformer snapshot");
+    }
+
+    static void writeInts(final DataOutputStream dos, final int[] values) throws IOException {
+        dos.writeInt(values.length);
+        for (int value : values) {
+            dos.writeInt(value);
+        }
+    }
+
+    static int[] readInts(final ByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        check(length >= 0 && length <= buffer.remaining() / 4);
+        final int[] retVal = new int[length];
+        buffer.asIntBuffer().get(retVal);
+        buffer.position(buffer.position() + length * 4);
+        return retVal;
+    }
+
+    private static void writeBytes(final DataOutputStream dos, final byte[] values) throws IOException {
+        dos.writeInt(values.length);
+        dos.write(values);
+    }
+
+    private static byte[] readBytes(final ByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        check(length >= 0 && length <= buffer.remaining());
+        final byte[] retVal = new byte[length];
+        buffer.get(retVal);
+        return retVal;
+    }
+
+}
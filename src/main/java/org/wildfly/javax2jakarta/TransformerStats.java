@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Class file transformer statistics. Counters are striped so they can be updated by many threads with low overhead.
+ * Statistics are collected only if enabled via {@link Transformer.Builder#enableStatistics()}.
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class TransformerStats implements TransformerStatsMXBean {
+
+    private static final String OBJECT_NAME = "org.wildfly.javax2jakarta:type=TransformerStats,id=";
+
+    private final String[] mappingFrom;
+    private final LongAdder[] matches;
+    private final LongAdder classesScanned = new LongAdder();
+    private final LongAdder classesPatched = new LongAdder();
+    private final LongAdder utf8ItemsScanned = new LongAdder();
+    private final LongAdder utf8BytesScanned = new LongAdder();
+    private final LongAdder bytesAdded = new LongAdder();
+    private final LongAdder constantPoolParsingTime = new LongAdder();
+    private final LongAdder matchingTime = new LongAdder();
+    private final LongAdder patchingTime = new LongAdder();
+    private final LongAdder compressionTime = new LongAdder();
+    private final LongAdder ioTime = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param mappingFrom search strings indexed from <code>one</code>
+     */
+    TransformerStats(final String[] mappingFrom) {
+        this.mappingFrom = mappingFrom;
+        this.matches = new LongAdder[mappingFrom.length];
+        for (int i = 1; i < matches.length; i++) {
+            matches[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public long getClassesScanned() {
+        return classesScanned.sum();
+    }
+
+    @Override
+    public long getClassesPatched() {
+        return classesPatched.sum();
+    }
+
+    @Override
+    public long getUtf8ItemsScanned() {
+        return utf8ItemsScanned.sum();
+    }
+
+    @Override
+    public long getUtf8BytesScanned() {
+        return utf8BytesScanned.sum();
+    }
+
+    @Override
+    public long getBytesAdded() {
+        return bytesAdded.sum();
+    }
+
+    @Override
+    public Map<String, Long> getMatches() {
+        final Map<String, Long> retVal = new LinkedHashMap<>();
+        for (int i = 1; i < matches.length; i++) {
+            retVal.put(mappingFrom[i], matches[i].sum());
+        }
+        return retVal;
+    }
+
+    @Override
+    public long getConstantPoolParsingTime() {
+        return constantPoolParsingTime.sum();
+    }
+
+    @Override
+    public long getMatchingTime() {
+        return matchingTime.sum();
+    }
+
+    @Override
+    public long getPatchingTime() {
+        return patchingTime.sum();
+    }
+
+    @Override
+    public long getCompressionTime() {
+        return compressionTime.sum();
+    }
+
+    @Override
+    public long getIoTime() {
+        return ioTime.sum();
+    }
+
+    /**
+     * Registers these statistics to platform MBean server.
+     *
+     * @return registered MBean name
+     * @throws IllegalStateException if registration failed
+     */
+    ObjectName registerMBean() {
+        try {
+            return ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME + System.identityHashCode(this))).getObjectName();
+        } catch (final JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Unregisters these statistics from platform MBean server.
+     *
+     * @param name name returned by {@link #registerMBean()}
+     */
+    static void unregisterMBean(final ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (final JMException ignored) {
+            // already unregistered
+        }
+    }
+
+    void recordScan(final int utf8Items, final long utf8Bytes, final long parsingTime, final long matchingTime) {
+        classesScanned.increment();
+        if (utf8Items != 0) {
+            utf8ItemsScanned.add(utf8Items);
+            utf8BytesScanned.add(utf8Bytes);
+            constantPoolParsingTime.add(parsingTime);
+        }
+        this.matchingTime.add(matchingTime);
+    }
+
+    void recordMatch(final int mappingIndex) {
+        matches[mappingIndex].increment();
+    }
+
+    void recordPatch(final int bytesAdded, final long patchingTime) {
+        classesPatched.increment();
+        this.bytesAdded.add(bytesAdded);
+        this.patchingTime.add(patchingTime);
+    }
+
+    void recordCompression(final long time) {
+        compressionTime.add(time);
+    }
+
+    void recordIo(final long time) {
+        ioTime.add(time);
+    }
+
+    /**
+     * Returns human readable summary of these statistics.
+     *
+     * @return statistics summary
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Classes scanned: ").append(getClassesScanned()).append(", patched: ").append(getClassesPatched()).append('\n');
+        sb.append("UTF-8 items scanned: ").append(getUtf8ItemsScanned()).append(", bytes scanned: ").append(getUtf8BytesScanned())
+                .append(", bytes added: ").append(getBytesAdded()).append('\n');
+        sb.append("Time in ms - constant pool parsing: ").append(toMillis(getConstantPoolParsingTime()))
+                .append(", matching: ").append(toMillis(getMatchingTime()))
+                .append(", patching: ").append(toMillis(getPatchingTime()))
+                .append(", inflate/deflate: ").append(toMillis(getCompressionTime()))
+                .append(", I/O: ").append(toMillis(getIoTime())).append('\n');
+        long count;
+        for (int i = 1; i < matches.length; i++) {
+            count = matches[i].sum();
+            if (count != 0) sb.append("Matches of ").append(mappingFrom[i]).append(": ").append(count).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static long toMillis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+}
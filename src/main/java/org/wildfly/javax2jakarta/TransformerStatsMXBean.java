@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link TransformerStats}. All times are in nanoseconds.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public interface TransformerStatsMXBean {
+
+    /**
+     * Returns count of investigated classes.
+     *
+     * @return classes scanned
+     */
+    long getClassesScanned();
+
+    /**
+     * Returns count of modified classes.
+     *
+     * @return classes patched
+     */
+    long getClassesPatched();
+
+    /**
+     * Returns count of investigated <code>CONSTANT_Utf8_info</code> structures.
+     *
+     * @return UTF-8 items scanned
+     */
+    long getUtf8ItemsScanned();
+
+    /**
+     * Returns count of investigated <code>CONSTANT_Utf8_info</code> structures bytes.
+     *
+     * @return UTF-8 bytes scanned
+     */
+    long getUtf8BytesScanned();
+
+    /**
+     * Returns count of bytes modified classes grew by.
+     *
+     * @return bytes added
+     */
+    long getBytesAdded();
+
+    /**
+     * Returns count of matches of every mapping.
+     *
+     * @return mapping search string to count of its matches
+     */
+    Map<String, Long> getMatches();
+
+    /**
+     * Returns time spent in <code>constant pool</code> parsing. Includes scanning of <code>CONSTANT_Utf8_info</code> structures
+     * for mapping matches as both happen in single pass.
+     *
+     * @return constant pool parsing time
+     */
+    long getConstantPoolParsingTime();
+
+    /**
+     * Returns time spent in fast rejection test searching for mapping matches in whole class byte code.
+     *
+     * @return matching time
+     */
+    long getMatchingTime();
+
+    /**
+     * Returns time spent in writing modified classes.
+     *
+     * @return patching time
+     */
+    long getPatchingTime();
+
+    /**
+     * Returns time spent in archive entries decompression and compression.
+     *
+     * @return inflate and deflate time
+     */
+    long getCompressionTime();
+
+    /**
+     * Returns time spent in reading and writing files.
+     *
+     * @return I/O time
+     */
+    long getIoTime();
+
+}
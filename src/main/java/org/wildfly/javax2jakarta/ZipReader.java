@@ -0,0 +1,432 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads zip archives directly from their central directory.
+ * Unlike {@link java.util.zip.ZipFile} it provides access to raw compressed entry data
+ * so unchanged entries can be copied without decompression and recompression.
+ * Archive files are memory mapped, thus heap usage doesn't grow with archive size.
+ * Instances of this class are thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ZipReader implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034B50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014B50;
+    private static final int END_SIGNATURE = 0x06054B50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064B50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064B50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int ENCRYPTED_FLAG = 0x0001;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private final Source source;
+    private final List<Entry> entries;
+
+    /**
+     * Constructor.
+     *
+     * @param source archive data
+     * @throws IOException if archive central directory couldn't be read
+     */
+    private ZipReader(final Source source) throws IOException {
+        this.source = source;
+        this.entries = Collections.unmodifiableList(readCentralDirectory());
+    }
+
+    /**
+     * Opens zip archive file. The file is memory mapped so entry data are never read through intermediate heap buffers.
+     *
+     * @param file archive file
+     * @return zip archive reader
+     * @throws IOException if archive couldn't be opened
+     */
+    static ZipReader open(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new ZipReader(new MappedSource(channel));
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens in memory zip archive.
+     *
+     * @param archive archive content
+     * @return zip archive reader
+     * @throws IOException if archive couldn't be opened
+     */
+    static ZipReader open(final byte[] archive) throws IOException {
+        return new ZipReader(new ArraySource(archive));
+    }
+
+    /**
+     * Returns archive entries in central directory order.
+     *
+     * @return archive entries
+     */
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns raw, possibly compressed, entry data. Returned buffer is a view of the archive content, no data are copied.
+     *
+     * @param entry archive entry
+     * @return raw entry data
+     * @throws IOException if entry data couldn't be located
+     */
+    ByteBuffer getRawData(final Entry entry) throws IOException {
+        if (entry.compressedSize > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("File " + entry.name + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+        }
+        final byte[] header = new byte[LOCAL_HEADER_SIZE];
+        source.read(entry.localHeaderOffset, header, 0, header.length);
+        if (readInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header of entry " + entry.name);
+        }
+        final long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + readShort(header, 26) + readShort(header, 28);
+        return source.slice(dataOffset, (int) entry.compressedSize);
+    }
+
+    /**
+     * Reads uncompressed entry data. Compressed data are inflated directly from the archive content
+     * using per thread reusable input buffer.
+     *
+     * @param entry archive entry
+     * @return uncompressed entry data
+     * @throws IOException if entry data couldn't be read or decompressed
+     */
+    byte[] read(final Entry entry) throws IOException {
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("File " + entry.name + " too big! Maximum allowed file size is " + Integer.MAX_VALUE + " bytes");
+        }
+        final ByteBuffer raw = getRawData(entry);
+        final byte[] retVal = new byte[(int) entry.size];
+        if (entry.method == ZipEntry.STORED) {
+            if (raw.remaining() != retVal.length) throw new ZipException("Invalid size of stored entry " + entry.name);
+            raw.get(retVal);
+            return retVal;
+        }
+        Decompressor.get().inflate(entry, raw, retVal);
+        return retVal;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        // locate end of central directory record
+        final long archiveSize = source.size();
+        final int tailSize = (int) Math.min(archiveSize, END_SIZE + MAX_COMMENT_SIZE + ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE);
+        final byte[] tail = new byte[tailSize];
+        source.read(archiveSize - tailSize, tail, 0, tailSize);
+        int end = tailSize - END_SIZE;
+        while (end >= 0 && readInt(tail, end) != END_SIGNATURE) end--;
+        if (end < 0) throw new ZipException("End of central directory record not found");
+        long count = readShort(tail, end + 10);
+        long centralDirectorySize = readInt(tail, end + 12) & ZIP64_MAGIC;
+        long centralDirectoryOffset = readInt(tail, end + 16) & ZIP64_MAGIC;
+        // zip64 end of central directory record
+        final int locator = end - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && readInt(tail, locator) == ZIP64_LOCATOR_SIGNATURE) {
+            final byte[] zip64End = new byte[ZIP64_END_SIZE];
+            source.read(readLong(tail, locator + 8), zip64End, 0, ZIP64_END_SIZE);
+            if (readInt(zip64End, 0) != ZIP64_END_SIGNATURE) throw new ZipException("Invalid zip64 end of central directory record");
+            count = readLong(zip64End, 32);
+            centralDirectorySize = readLong(zip64End, 40);
+            centralDirectoryOffset = readLong(zip64End, 48);
+        } else if (count == ZIP64_MAGIC_COUNT || centralDirectoryOffset == ZIP64_MAGIC) {
+            throw new ZipException("Zip64 end of central directory locator not found");
+        }
+        if (centralDirectorySize > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("Central directory too big! Maximum allowed size is " + Integer.MAX_VALUE + " bytes");
+        }
+        // parse central directory
+        final byte[] centralDirectory = new byte[(int) centralDirectorySize];
+        source.read(centralDirectoryOffset, centralDirectory, 0, centralDirectory.length);
+        final List<Entry> retVal = new ArrayList<>((int) Math.min(count, Integer.MAX_VALUE));
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (readInt(centralDirectory, position) != CENTRAL_HEADER_SIGNATURE) throw new ZipException("Invalid central directory header");
+            final int flags = readShort(centralDirectory, position + 8);
+            final int method = readShort(centralDirectory, position + 10);
+            final int dosTime = readInt(centralDirectory, position + 12);
+            final int crc = readInt(centralDirectory, position + 16);
+            long compressedSize = readInt(centralDirectory, position + 20) & ZIP64_MAGIC;
+            long size = readInt(centralDirectory, position + 24) & ZIP64_MAGIC;
+            final int nameLength = readShort(centralDirectory, position + 28);
+            final int extraLength = readShort(centralDirectory, position + 30);
+            final int commentLength = readShort(centralDirectory, position + 32);
+            long localHeaderOffset = readInt(centralDirectory, position + 42) & ZIP64_MAGIC;
+            final String name = new String(centralDirectory, position + CENTRAL_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+            // zip64 extended information extra field
+            int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+            final int extraLimit = extra + extraLength;
+            while (extra + 4 <= extraLimit) {
+                final int id = readShort(centralDirectory, extra);
+                final int length = readShort(centralDirectory, extra + 2);
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    if (size == ZIP64_MAGIC) { size = readLong(centralDirectory, field); field += 8; }
+                    if (compressedSize == ZIP64_MAGIC) { compressedSize = readLong(centralDirectory, field); field += 8; }
+                    if (localHeaderOffset == ZIP64_MAGIC) { localHeaderOffset = readLong(centralDirectory, field); }
+                }
+                extra += 4 + length;
+            }
+            if ((flags & ENCRYPTED_FLAG) != 0) throw new UnsupportedOperationException("Encrypted entry " + name + " not supported");
+            if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+                throw new UnsupportedOperationException("Compression method " + method + " of entry " + name + " not supported");
+            }
+            retVal.add(new Entry(name, method, dosTime, crc, compressedSize, size, localHeaderOffset));
+            position = extraLimit + commentLength;
+        }
+        return retVal;
+    }
+
+    private static int readShort(final byte[] buffer, final int offset) {
+        return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(final byte[] buffer, final int offset) {
+        return readShort(buffer, offset) | readShort(buffer, offset + 2) << 16;
+    }
+
+    private static long readLong(final byte[] buffer, final int offset) {
+        return (readInt(buffer, offset) & ZIP64_MAGIC) | (long) readInt(buffer, offset + 4) << 32;
+    }
+
+    /**
+     * Zip archive entry as described by central directory.
+     *
+     * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+     */
+    static final class Entry {
+        final String name;
+        final int method;
+        final int dosTime;
+        final int crc;
+        final long compressedSize;
+        final long size;
+        private final long localHeaderOffset;
+
+        private Entry(final String name, final int method, final int dosTime, final int crc, final long compressedSize, final long size, final long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * Per thread reusable inflater and its input buffer.
+     * Java 8 inflater accepts only array input so compressed data are fed to it in small chunks.
+     */
+    private static final class Decompressor {
+        private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+        private static final ThreadLocal<Decompressor> DECOMPRESSORS = new ThreadLocal<>();
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] input = new byte[INPUT_BUFFER_SIZE];
+
+        private static Decompressor get() {
+            Decompressor retVal = DECOMPRESSORS.get();
+            if (retVal == null) {
+                retVal = new Decompressor();
+                DECOMPRESSORS.set(retVal);
+            }
+            return retVal;
+        }
+
+        private void inflate(final Entry entry, final ByteBuffer raw, final byte[] target) throws IOException {
+            inflater.reset();
+            int offset = 0, count;
+            boolean dummyByte = false;
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        if (raw.hasRemaining()) {
+                            count = Math.min(raw.remaining(), input.length);
+                            raw.get(input, 0, count);
+                            inflater.setInput(input, 0, count);
+                        } else if (!dummyByte) {
+                            // nowrap inflater may require extra dummy byte
+                            input[0] = 0;
+                            inflater.setInput(input, 0, 1);
+                            dummyByte = true;
+                        } else {
+                            break;
+                        }
+                    }
+                    count = inflater.inflate(target, offset, target.length - offset);
+                    if (count == 0 && (offset == target.length || inflater.needsDictionary())) break;
+                    offset += count;
+                }
+            } catch (final DataFormatException e) {
+                throw new ZipException("Invalid compressed data of entry " + entry.name + ": " + e.getMessage());
+            }
+            if (!inflater.finished() || offset != target.length) {
+                throw new ZipException("Invalid compressed data of entry " + entry.name);
+            }
+        }
+    }
+
+    /**
+     * Random access archive data.
+     */
+    private interface Source extends Closeable {
+        long size() throws IOException;
+
+        void read(long position, byte[] buffer, int offset, int length) throws IOException;
+
+        ByteBuffer slice(long position, int length) throws IOException;
+    }
+
+    /**
+     * Archive data stored in memory mapped file. The file is mapped in regions of limited size,
+     * data crossing region boundaries are mapped on demand.
+     */
+    private static final class MappedSource implements Source {
+        private static final int REGION_SIZE = 1 << 30;
+        private final FileChannel channel;
+        private final long size;
+        private final ByteBuffer[] regions;
+
+        private MappedSource(final FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.regions = new ByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                final long position = (long) i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position));
+            }
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void read(long position, final byte[] buffer, int offset, int length) throws IOException {
+            if (position < 0 || position + length > size) throw new EOFException();
+            ByteBuffer region;
+            int count;
+            while (length > 0) {
+                region = regions[(int) (position / REGION_SIZE)].duplicate();
+                region.position((int) (position % REGION_SIZE));
+                count = Math.min(length, region.remaining());
+                region.get(buffer, offset, count);
+                position += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public ByteBuffer slice(final long position, final int length) throws IOException {
+            if (position < 0 || position + length > size) throw new EOFException();
+            final int regionOffset = (int) (position % REGION_SIZE);
+            if ((long) regionOffset + length > REGION_SIZE) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            }
+            final ByteBuffer retVal = regions[(int) (position / REGION_SIZE)].duplicate();
+            retVal.position(regionOffset);
+            retVal.limit(regionOffset + length);
+            return retVal.slice();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Archive data stored in memory.
+     */
+    private static final class ArraySource implements Source {
+        private final byte[] data;
+
+        private ArraySource(final byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public void read(final long position, final byte[] buffer, final int offset, final int length) throws IOException {
+            if (position < 0 || position + length > data.length) throw new EOFException();
+            System.arraycopy(data, (int) position, buffer, offset, length);
+        }
+
+        @Override
+        public ByteBuffer slice(final long position, final int length) throws IOException {
+            if (position < 0 || position + length > data.length) throw new EOFException();
+            return ByteBuffer.wrap(data, (int) position, length).slice();
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+
+}
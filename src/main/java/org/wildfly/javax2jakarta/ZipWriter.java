@@ -0,0 +1,400 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes zip archives from already compressed entries.
+ * Unlike {@link java.util.zip.ZipOutputStream} it allows entries to be compressed in parallel by multiple threads
+ * and written later in required order. Entries of unknown size can be compressed while written.
+ * Instances of this class are not thread safe.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+final class ZipWriter implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034B50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014B50;
+    private static final int END_SIGNATURE = 0x06054B50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064B50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064B50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074B50;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x0008;
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream os;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final byte[] header = new byte[64];
+    private byte[] copyBuffer;
+    private long offset;
+    private long count;
+
+    /**
+     * Constructor.
+     *
+     * @param os stream to write zip archive to
+     */
+    ZipWriter(final OutputStream os) {
+        this.os = os;
+    }
+
+    /**
+     * Compresses entry data. If compression doesn't reduce data size entry will be stored.
+     *
+     * @param name entry name
+     * @param data uncompressed entry data
+     * @param dosTime entry modification time in MS-DOS format
+     * @return compressed entry
+     */
+    static Entry compress(final String name, final byte[] data, final int dosTime) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, data.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    if (length >= data.length) {
+                        return new Entry(name, ZipEntry.STORED, (int) crc.getValue(), data.length, ByteBuffer.wrap(data), dosTime);
+                    }
+                    final byte[] newBuffer = new byte[Math.min(buffer.length * 2, data.length + 1)];
+                    System.arraycopy(buffer, 0, newBuffer, 0, length);
+                    buffer = newBuffer;
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (length >= data.length) {
+                return new Entry(name, ZipEntry.STORED, (int) crc.getValue(), data.length, ByteBuffer.wrap(data), dosTime);
+            }
+            return new Entry(name, ZipEntry.DEFLATED, (int) crc.getValue(), data.length, ByteBuffer.wrap(buffer, 0, length), dosTime);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes compressed entry.
+     *
+     * @param entry compressed entry
+     * @throws IOException if some I/O error occurs
+     */
+    void write(final Entry entry) throws IOException {
+        final byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        // local file header
+        writeInt(header, 0, LOCAL_HEADER_SIGNATURE);
+        writeShort(header, 4, VERSION);
+        writeShort(header, 6, UTF8_FLAG);
+        writeShort(header, 8, entry.method);
+        writeInt(header, 10, entry.dosTime);
+        writeInt(header, 14, entry.crc);
+        writeInt(header, 18, entry.length);
+        writeInt(header, 22, (int) entry.size);
+        writeShort(header, 26, name.length);
+        writeShort(header, 28, 0);
+        os.write(header, 0, 30);
+        os.write(name);
+        writeData(entry.data);
+        writeCentralHeader(name, UTF8_FLAG, entry.method, entry.dosTime, entry.crc, entry.length, entry.size);
+        offset += 30L + name.length + entry.length;
+        count++;
+    }
+
+    /**
+     * Starts deflated entry of unknown size. Its data are compressed while written to returned stream
+     * and the entry is completed by closing the stream. Entry CRC and sizes are written to data descriptor
+     * following the compressed data so the archive can be written to non seekable streams.
+     * No other entry can be written until returned stream is closed.
+     *
+     * @param entryName entry name
+     * @param dosTime entry modification time in MS-DOS format
+     * @return stream to write uncompressed entry data to
+     * @throws IOException if some I/O error occurs
+     */
+    OutputStream newEntry(final String entryName, final int dosTime) throws IOException {
+        final byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+        // local file header
+        writeInt(header, 0, LOCAL_HEADER_SIGNATURE);
+        writeShort(header, 4, VERSION);
+        writeShort(header, 6, UTF8_FLAG | DATA_DESCRIPTOR_FLAG);
+        writeShort(header, 8, ZipEntry.DEFLATED);
+        writeInt(header, 10, dosTime);
+        writeInt(header, 14, 0);
+        writeInt(header, 18, 0);
+        writeInt(header, 22, 0);
+        writeShort(header, 26, name.length);
+        writeShort(header, 28, 0);
+        os.write(header, 0, 30);
+        os.write(name);
+        return new EntryOutputStream(name, dosTime);
+    }
+
+    private void writeCentralHeader(final byte[] name, final int flags, final int method, final int dosTime, final int crc,
+                                    final long length, final long size) {
+        final boolean zip64 = offset >= ZIP64_MAGIC;
+        writeInt(header, 0, CENTRAL_HEADER_SIGNATURE);
+        writeShort(header, 4, zip64 ? ZIP64_VERSION : VERSION);
+        writeShort(header, 6, zip64 ? ZIP64_VERSION : VERSION);
+        writeShort(header, 8, flags);
+        writeShort(header, 10, method);
+        writeInt(header, 12, dosTime);
+        writeInt(header, 16, crc);
+        writeInt(header, 20, (int) length);
+        writeInt(header, 24, (int) size);
+        writeShort(header, 28, name.length);
+        writeShort(header, 30, zip64 ? 12 : 0);
+        writeShort(header, 32, 0);
+        writeShort(header, 34, 0);
+        writeShort(header, 36, 0);
+        writeInt(header, 38, 0);
+        writeInt(header, 42, zip64 ? (int) ZIP64_MAGIC : (int) offset);
+        centralDirectory.write(header, 0, 46);
+        centralDirectory.write(name, 0, name.length);
+        if (zip64) {
+            writeShort(header, 0, ZIP64_EXTRA_ID);
+            writeShort(header, 2, 8);
+            writeLong(header, 4, offset);
+            centralDirectory.write(header, 0, 12);
+        }
+    }
+
+    private void writeData(final ByteBuffer data) throws IOException {
+        if (data.hasArray()) {
+            os.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+        // direct or memory mapped buffer
+        if (copyBuffer == null) copyBuffer = new byte[COPY_BUFFER_SIZE];
+        final ByteBuffer source = data.duplicate();
+        int count;
+        while (source.hasRemaining()) {
+            count = Math.min(source.remaining(), copyBuffer.length);
+            source.get(copyBuffer, 0, count);
+            os.write(copyBuffer, 0, count);
+        }
+    }
+
+    /**
+     * Writes central directory and closes underlying stream.
+     *
+     * @throws IOException if some I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            final long centralDirectoryOffset = offset;
+            final long centralDirectorySize = centralDirectory.size();
+            centralDirectory.writeTo(os);
+            final boolean zip64 = count >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC;
+            if (zip64) {
+                final long zip64EndOffset = centralDirectoryOffset + centralDirectorySize;
+                // zip64 end of central directory record
+                writeInt(header, 0, ZIP64_END_SIGNATURE);
+                writeLong(header, 4, 44);
+                writeShort(header, 12, ZIP64_VERSION);
+                writeShort(header, 14, ZIP64_VERSION);
+                writeInt(header, 16, 0);
+                writeInt(header, 20, 0);
+                writeLong(header, 24, count);
+                writeLong(header, 32, count);
+                writeLong(header, 40, centralDirectorySize);
+                writeLong(header, 48, centralDirectoryOffset);
+                os.write(header, 0, 56);
+                // zip64 end of central directory locator
+                writeInt(header, 0, ZIP64_LOCATOR_SIGNATURE);
+                writeInt(header, 4, 0);
+                writeLong(header, 8, zip64EndOffset);
+                writeInt(header, 16, 1);
+                os.write(header, 0, 20);
+            }
+            // end of central directory record
+            writeInt(header, 0, END_SIGNATURE);
+            writeShort(header, 4, 0);
+            writeShort(header, 6, 0);
+            writeShort(header, 8, zip64 ? ZIP64_MAGIC_COUNT : (int) count);
+            writeShort(header, 10, zip64 ? ZIP64_MAGIC_COUNT : (int) count);
+            writeInt(header, 12, zip64 ? (int) ZIP64_MAGIC : (int) centralDirectorySize);
+            writeInt(header, 16, zip64 ? (int) ZIP64_MAGIC : (int) centralDirectoryOffset);
+            writeShort(header, 20, 0);
+            os.write(header, 0, 22);
+            os.flush();
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Converts time to MS-DOS format used by zip archives.
+     *
+     * @param time time in milliseconds
+     * @return time in MS-DOS format
+     */
+    static int toDosTime(final long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static void writeShort(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void writeInt(final byte[] buffer, final int offset, final int value) {
+        writeShort(buffer, offset, value);
+        writeShort(buffer, offset + 2, value >>> 16);
+    }
+
+    private static void writeLong(final byte[] buffer, final int offset, final long value) {
+        writeInt(buffer, offset, (int) value);
+        writeInt(buffer, offset + 4, (int) (value >>> 32));
+    }
+
+    /**
+     * Compresses data of entry started by {@link #newEntry(String, int)}.
+     */
+    private final class EntryOutputStream extends OutputStream {
+        private final byte[] name;
+        private final int dosTime;
+        private final CRC32 crc = new CRC32();
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        private long length;
+        private boolean closed;
+
+        private EntryOutputStream(final byte[] name, final int dosTime) {
+            this.name = name;
+            this.dosTime = dosTime;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] data, final int off, final int len) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            if (len == 0) return;
+            crc.update(data, off, len);
+            deflater.setInput(data, off, len);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+
+        private void deflate() throws IOException {
+            final int count = deflater.deflate(buffer, 0, buffer.length);
+            if (count > 0) {
+                os.write(buffer, 0, count);
+                length += count;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate();
+                }
+                final long size = deflater.getBytesRead();
+                if (length >= ZIP64_MAGIC || size >= ZIP64_MAGIC) {
+                    throw new ZipException("Entry " + new String(name, StandardCharsets.UTF_8) + " too big! Maximum allowed streamed entry size is " + (ZIP64_MAGIC - 1) + " bytes");
+                }
+                // data descriptor
+                writeInt(header, 0, DATA_DESCRIPTOR_SIGNATURE);
+                writeInt(header, 4, (int) crc.getValue());
+                writeInt(header, 8, (int) length);
+                writeInt(header, 12, (int) size);
+                os.write(header, 0, 16);
+                writeCentralHeader(name, UTF8_FLAG | DATA_DESCRIPTOR_FLAG, ZipEntry.DEFLATED, dosTime, (int) crc.getValue(), length, size);
+                offset += 30 + name.length + length + 16;
+                count++;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Compressed zip entry.
+     *
+     * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+     */
+    static final class Entry {
+        final String name;
+        final int method;
+        final int crc;
+        final long size;
+        final ByteBuffer data;
+        final int length;
+        final int dosTime;
+
+        /**
+         * Constructor.
+         *
+         * @param name entry name
+         * @param method compression method, either {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+         * @param crc CRC-32 of uncompressed data
+         * @param size uncompressed data size
+         * @param data compressed data, buffer position and limit are not modified
+         * @param dosTime modification time in MS-DOS format
+         */
+        Entry(final String name, final int method, final int crc, final long size, final ByteBuffer data, final int dosTime) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.length = data.remaining();
+            this.dosTime = dosTime;
+        }
+    }
+
+}
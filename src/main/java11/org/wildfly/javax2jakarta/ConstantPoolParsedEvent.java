@@ -0,0 +1,62 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of constant pool parsing, disabled by default. Only classes passing fast rejection test
+ * have their constant pool parsed. Duration includes scanning of UTF-8 items for mapping matches.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+@Name("org.wildfly.javax2jakarta.ConstantPoolParsed")
+@Label("Constant Pool Parsed")
+@Description("Constant pool of class file possibly containing mapping matches was parsed")
+@Category("Javax to Jakarta")
+@Enabled(false)
+@StackTrace(false)
+final class ConstantPoolParsedEvent extends Event {
+
+    @Label("Class Size")
+    @DataAmount
+    int classSize;
+
+    @Label("Constant Pool Count")
+    int constantPoolCount;
+
+    @Label("UTF-8 Items")
+    @Description("Count of CONSTANT_Utf8_info structures scanned for mapping matches")
+    int utf8Items;
+
+    @Label("UTF-8 Bytes")
+    @DataAmount
+    long utf8Bytes;
+
+}
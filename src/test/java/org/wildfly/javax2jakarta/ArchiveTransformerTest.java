@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compares archives transformed in streaming mode with archives transformed from memory mapped files.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class ArchiveTransformerTest {
+
+    private static final String CLASS_NAME = ArchiveTransformerTest.class.getName().replace('.', '/') + ArchiveTransformer.CLASS_FILE_EXT;
+    private static final String NESTED_ARCHIVE_SEPARATOR = "!/";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Limit of single byte makes every entry but class files stream, nested archive is transformed recursively while read
+     * and all written entries but class files have data descriptors.
+     */
+    @Test
+    public void streamsNestedArchives() throws IOException {
+        final Transformer t = Transformer.newInstance().addMapping("org/junit/", "org/test/").build();
+        final File archive = folder.newFile("app.war");
+        final File mapped = folder.newFile("mapped.war");
+        final File streamed = folder.newFile("streamed.war");
+        final byte[] clazz = readClass();
+        final byte[] random = new byte[200000];
+        new Random(0).nextBytes(random);
+        final Map<String, byte[]> libEntries = new TreeMap<>();
+        libEntries.put(CLASS_NAME, clazz);
+        libEntries.put("random.bin", random);
+        final Map<String, byte[]> entries = new TreeMap<>();
+        entries.put("WEB-INF/classes/" + CLASS_NAME, clazz);
+        entries.put("WEB-INF/lib/lib.jar", archive(libEntries));
+        entries.put("index.html", ZipWriterTest.repeat("<p>javax.servlet</p>\n", 10000));
+        try (FileOutputStream fos = new FileOutputStream(archive)) {
+            fos.write(archive(entries));
+        }
+        new ArchiveTransformer(t, 2, false, 0).transform(archive, mapped);
+        new ArchiveTransformer(t, 2, false, 1).transform(archive, streamed);
+        final Map<String, byte[]> mappedEntries = read(mapped);
+        final Map<String, byte[]> streamedEntries = read(streamed);
+        assertEquals(mappedEntries.keySet(), streamedEntries.keySet());
+        for (Map.Entry<String, byte[]> entry : mappedEntries.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), streamedEntries.get(entry.getKey()));
+        }
+        final byte[] transformedClass = t.transform(clazz);
+        assertNotSame(clazz, transformedClass);
+        assertArrayEquals(transformedClass, streamedEntries.get("WEB-INF/lib/lib.jar" + NESTED_ARCHIVE_SEPARATOR + CLASS_NAME));
+        assertArrayEquals(transformedClass, streamedEntries.get("WEB-INF/classes/" + CLASS_NAME));
+        assertArrayEquals(random, streamedEntries.get("WEB-INF/lib/lib.jar" + NESTED_ARCHIVE_SEPARATOR + "random.bin"));
+        assertArrayEquals(entries.get("index.html"), streamedEntries.get("index.html"));
+    }
+
+    private static byte[] readClass() throws IOException {
+        try (InputStream is = ArchiveTransformerTest.class.getResourceAsStream(ArchiveTransformerTest.class.getSimpleName() + ArchiveTransformer.CLASS_FILE_EXT)) {
+            return IOUtils.readAll(is);
+        }
+    }
+
+    private static byte[] archive(final Map<String, byte[]> entries) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Reads archive with {@link ZipInputStream}, thus relying on data descriptors, nested archives are read recursively.
+     */
+    private static Map<String, byte[]> read(final File archive) throws IOException {
+        final Map<String, byte[]> retVal = new TreeMap<>();
+        try (InputStream is = new FileInputStream(archive)) {
+            read(is, "", retVal);
+        }
+        return retVal;
+    }
+
+    private static void read(final InputStream archive, final String prefix, final Map<String, byte[]> entries) throws IOException {
+        final ZipInputStream zis = new ZipInputStream(archive);
+        ZipEntry entry;
+        byte[] data;
+        while ((entry = zis.getNextEntry()) != null) {
+            data = IOUtils.readAll(zis);
+            if (ArchiveTransformer.isArchive(entry.getName())) {
+                read(new ByteArrayInputStream(data), prefix + entry.getName() + NESTED_ARCHIVE_SEPARATOR, entries);
+            } else {
+                entries.put(prefix + entry.getName(), data);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Compares matches found by automaton with leftmost longest matches found by brute force.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class AutomatonTest {
+
+    private static final long SEED = 0x6A617661L;
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz./$_0123456789";
+
+    @Test
+    public void findsLeftmostLongestMatch() {
+        final String[] patterns = {"javax.", "javax.xml.", "javax.xml.bind.", "ax.x", "xml"};
+        final Automaton automaton = compile(patterns, true);
+        assertMatch(automaton, patterns, "javax.xml.bind.Foo", 0, "javax.xml.bind.");
+        assertMatch(automaton, patterns, "javax.xml.ws.Foo", 0, "javax.xml.");
+        assertMatch(automaton, patterns, "javax.ws.Foo", 0, "javax.");
+        // pattern ending first must not win over pattern starting before it
+        assertMatch(automaton, patterns, "jax.xml", 1, "ax.x");
+        assertMatch(automaton, patterns, "java.xml", 5, "xml");
+        assertMatch(automaton, patterns, "Ljavax.xml.bin", 1, "javax.xml.");
+        assertEquals(Automaton.NO_MATCH, automaton.find(bytes("java.lang.Object"), 0, "java.lang.Object".length()));
+    }
+
+    @Test
+    public void rejectsOverlappingPatternsUnlessAllowed() {
+        assertThrows(IllegalArgumentException.class, () -> compile(new String[] {"javax.", "javax.xml."}, false));
+        assertThrows(IllegalArgumentException.class, () -> compile(new String[] {"javax.xml.", "xml"}, false));
+        assertThrows(IllegalArgumentException.class, () -> compile(new String[] {"javax.xml.bind.", "xml"}, false));
+    }
+
+    @Test
+    public void rejectsDataWithoutPatterns() {
+        final Automaton automaton = compile(new String[] {"javax/", "javax."}, false);
+        assertFalse(automaton.mayMatch(bytes("java/lang/Object"), 0, "java/lang/Object".length()));
+        assertTrue(automaton.mayMatch(bytes("Ljavax/Foo;"), 0, "Ljavax/Foo;".length()));
+        // region bounds are respected
+        assertFalse(automaton.mayMatch(bytes("Ljavax/Foo;"), 2, "Ljavax/Foo;".length()));
+    }
+
+    @Test
+    public void matchesBruteForceWithDenseTransitions() {
+        final Random random = new Random(SEED);
+        final String[] patterns = randomPatterns(random, 200);
+        assertMatches(compile(patterns, true), patterns, randomData(random, patterns, 20000));
+        final String[] disjointPatterns = {"javax/", "javax.", "jakarta/xml/", "META-INF/services/"};
+        assertMatches(compile(disjointPatterns, false), disjointPatterns, randomData(random, disjointPatterns, 20000));
+    }
+
+    @Test
+    public void matchesBruteForceWithSparseTrie() {
+        final Random random = new Random(SEED);
+        // too many states times character classes for deterministic transition table
+        final String[] patterns = randomPatterns(random, 30000);
+        assertMatches(compile(patterns, true), patterns, randomData(random, patterns, 50000));
+    }
+
+    private static Automaton compile(final String[] patterns, final boolean overlapping) {
+        final byte[][] retVal = new byte[patterns.length + 1][];
+        retVal[0] = new byte[0];
+        for (int i = 0; i < patterns.length; i++) retVal[i + 1] = bytes(patterns[i]);
+        return Automaton.compile(retVal, overlapping);
+    }
+
+    private static void assertMatch(final Automaton automaton, final String[] patterns, final String data, final int start, final String pattern) {
+        final long match = automaton.find(bytes(data), 0, data.length());
+        assertEquals(data, start, match >>> 32);
+        assertEquals(data, pattern, patterns[(int) match - 1]);
+    }
+
+    /**
+     * Finds all matches in data the same way transformer does and compares them with brute force matches.
+     */
+    private static void assertMatches(final Automaton automaton, final String[] patterns, final String data) {
+        final Map<String, Integer> indices = new HashMap<>();
+        final Set<Integer> lengths = new TreeSet<>((a, b) -> b - a);
+        for (int i = 0; i < patterns.length; i++) {
+            indices.put(patterns[i], i + 1);
+            lengths.add(patterns[i].length());
+        }
+        final byte[] bytes = bytes(data);
+        final List<Long> expected = new ArrayList<>();
+        Integer index;
+        for (int start = 0; start < data.length(); start++) {
+            for (int length : lengths) {
+                if (start + length > data.length()) continue;
+                index = indices.get(data.substring(start, start + length));
+                if (index == null) continue;
+                expected.add((long) start << 32 | index);
+                start += length - 1;
+                break;
+            }
+        }
+        final List<Long> actual = new ArrayList<>();
+        long match;
+        for (int i = 0; (match = automaton.find(bytes, i, bytes.length)) != Automaton.NO_MATCH; i = (int) (match >>> 32) + patterns[(int) match - 1].length()) {
+            actual.add(match);
+        }
+        assertTrue(expected.size() > 100);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Returns random patterns, some of them being prefixes, suffixes or inner substrings of others.
+     */
+    private static String[] randomPatterns(final Random random, final int count) {
+        final Set<String> retVal = new LinkedHashSet<>();
+        String pattern;
+        int start, end;
+        while (retVal.size() < count) {
+            pattern = randomString(random, 8 + random.nextInt(17));
+            retVal.add(pattern);
+            if (random.nextInt(4) == 0 && retVal.size() < count) {
+                start = random.nextInt(3);
+                end = pattern.length() - random.nextInt(3);
+                if (end - start > 2) retVal.add(pattern.substring(start, end));
+            }
+        }
+        return retVal.toArray(new String[0]);
+    }
+
+    /**
+     * Returns random data containing patterns, their prefixes and random characters.
+     */
+    private static String randomData(final Random random, final String[] patterns, final int length) {
+        final StringBuilder sb = new StringBuilder(length + 32);
+        String pattern;
+        while (sb.length() < length) {
+            pattern = patterns[random.nextInt(patterns.length)];
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.append(pattern);
+                    break;
+                case 1:
+                    sb.append(pattern, 0, 1 + random.nextInt(pattern.length()));
+                    break;
+                default:
+                    sb.append(randomString(random, 1 + random.nextInt(16)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String randomString(final Random random, final int length) {
+        final char[] retVal = new char[length];
+        for (int i = 0; i < length; i++) retVal[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        return new String(retVal);
+    }
+
+    private static byte[] bytes(final String s) {
+        return s.getBytes(ISO_8859_1);
+    }
+
+}
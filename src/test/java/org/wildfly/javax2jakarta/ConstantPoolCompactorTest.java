@@ -0,0 +1,215 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.wildfly.javax2jakarta.ClassFileUtils.POOL_SIZE_INDEX;
+import static org.wildfly.javax2jakarta.ClassFileUtils.readUnsignedShort;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Compacts remapped fixture class with duplicate <code>constant pool</code> items and loads the result.
+ * The fixture method switches over its argument with <code>tableswitch</code> and returns strings loaded
+ * with single byte index <code>ldc</code> instructions.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class ConstantPoolCompactorTest {
+
+    private static final String CLASS_NAME = "Fixture";
+    private static final String METHOD_NAME = "value";
+    private static final int POOL_SIZE = 15;
+    private static final int DUPLICATES = 2;
+    private static final int UNKNOWN_ATTRIBUTE_INDEX = 14;
+
+    @Test
+    public void compactsDuplicates() throws Exception {
+        final byte[] remapped = newTransformer(false).transform(fixture(false));
+        final byte[] compacted = newTransformer(true).transform(fixture(false));
+        assertEquals(POOL_SIZE, readUnsignedShort(remapped, POOL_SIZE_INDEX));
+        assertEquals(POOL_SIZE - DUPLICATES, readUnsignedShort(compacted, POOL_SIZE_INDEX));
+        assertTrue(compacted.length < remapped.length);
+        assertValues(remapped);
+        assertValues(compacted);
+    }
+
+    @Test
+    public void compactsInPlaceAtOffset() throws Exception {
+        final byte[] remapped = newTransformer(false).transform(fixture(false));
+        final int offset = 5;
+        final byte[] buffer = new byte[offset + remapped.length];
+        System.arraycopy(remapped, 0, buffer, offset, remapped.length);
+        final int length = ConstantPoolCompactor.compact(buffer, offset, remapped.length);
+        assertArrayEquals(newTransformer(true).transform(fixture(false)), Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+
+    @Test
+    public void leavesClassesWithUnknownAttributesIntact() throws Exception {
+        final byte[] remapped = newTransformer(false).transform(fixture(true));
+        final byte[] compacted = newTransformer(true).transform(fixture(true));
+        assertArrayEquals(remapped, compacted);
+        assertValues(compacted);
+    }
+
+    @Test
+    public void leavesClassesWithoutDuplicatesIntact() throws Exception {
+        final byte[] clazz = fixture(false);
+        assertEquals(clazz.length, ConstantPoolCompactor.compact(clazz, 0, clazz.length));
+        assertArrayEquals(fixture(false), clazz);
+    }
+
+    private static Transformer newTransformer(final boolean compaction) {
+        final Transformer.Builder builder = Transformer.newInstance().addMapping("javax.", "jakarta.");
+        if (compaction) builder.enableCompaction();
+        return builder.build();
+    }
+
+    /**
+     * Defines the class in its own class loader, hence it is verified, and calls every branch of the fixture method.
+     */
+    private static void assertValues(final byte[] clazz) throws Exception {
+        final Method method = new FixtureClassLoader(clazz).loadClass(CLASS_NAME).getMethod(METHOD_NAME, int.class);
+        assertEquals("jakarta.Value", method.invoke(null, 0));
+        assertEquals("jakarta.Value", method.invoke(null, 1));
+        assertEquals("other", method.invoke(null, 2));
+    }
+
+    /**
+     * Assembles fixture class. Mapping <code>javax.</code> to <code>jakarta.</code> makes items 5 and 7 equal
+     * and so items 6 and 8 referencing them. The fixture is equivalent to:
+     * <pre>
+     * public class Fixture {
+     *     public static String value(int i) {
+     *         switch (i) {
+     *             case 0: return "javax.Value";
+     *             case 1: return "jakarta.Value";
+     *             default: return "other";
+     *         }
+     *     }
+     * }
+     * </pre>
+     *
+     * @param unknownAttribute whether to add class attribute unknown to the compactor
+     * @return fixture class byte code
+     */
+    private static byte[] fixture(final boolean unknownAttribute) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49); // no StackMapTable needed
+        out.writeShort(POOL_SIZE);
+        out.writeByte(ClassFileUtils.UTF8);
+        out.writeUTF(CLASS_NAME); // #1
+        out.writeByte(ClassFileUtils.CLASS);
+        out.writeShort(1); // #2
+        out.writeByte(ClassFileUtils.UTF8);
+        out.writeUTF("java/lang/Object"); // #3
+        out.writeByte(ClassFileUtils.CLASS);
+        out.writeShort(3); // #4
+        out.writeByte(ClassFileUtils.UTF8);
+        out.writeUTF("javax.Value"); // #5
+        out.writeByte(ClassFileUtils.STRING);
+        out.writeShort(5); // #6
+        out.writeByte(ClassFileUtils.UTF8);
+        out.writeUTF("jakarta.Value"); // #7
+        out.writeByte(ClassFileUtils.STRING);
+        out.writeShort(7); // #8
+        out.writeByte(ClassFileUtils.UTF8);
+        out.writeUTF("other"); // #9
+        out.writeByte(ClassFileUtils.STRING);
+        out.writeShort(9); // #10
+        out.writeByte(ClassFileUtils.UTF8);
+        out.writeUTF(METHOD_NAME); // #11
+        out.writeByte(ClassFileUtils.UTF8);
+        out.writeUTF("(I)Ljava/lang/String;"); // #12
+        out.writeByte(ClassFileUtils.UTF8);
+        out.writeUTF("Code"); // #13
+        out.writeByte(ClassFileUtils.UTF8);
+        out.writeUTF("Custom"); // #14
+        out.writeShort(0x0021); // ACC_PUBLIC | ACC_SUPER
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(1); // methods
+        out.writeShort(0x0009); // ACC_PUBLIC | ACC_STATIC
+        out.writeShort(11);
+        out.writeShort(12);
+        out.writeShort(1);
+        final byte[] code = {
+            0x1A, // 0: iload_0
+            (byte) 0xAA, 0, 0, // 1: tableswitch padded to 4
+            0, 0, 0, 29, // default: 30
+            0, 0, 0, 0, // low
+            0, 0, 0, 1, // high
+            0, 0, 0, 23, // 0: 24
+            0, 0, 0, 26, // 1: 27
+            0x12, 6, (byte) 0xB0, // 24: ldc #6, areturn
+            0x12, 8, (byte) 0xB0, // 27: ldc #8, areturn
+            0x12, 10, (byte) 0xB0, // 30: ldc #10, areturn
+        };
+        out.writeShort(13);
+        out.writeInt(12 + code.length);
+        out.writeShort(1); // max stack
+        out.writeShort(1); // max locals
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+        if (unknownAttribute) {
+            out.writeShort(1);
+            out.writeShort(UNKNOWN_ATTRIBUTE_INDEX);
+            out.writeInt(2);
+            out.writeShort(8); // might be constant pool index
+        } else {
+            out.writeShort(0);
+        }
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    private static final class FixtureClassLoader extends ClassLoader {
+        private final byte[] clazz;
+
+        private FixtureClassLoader(final byte[] clazz) {
+            super(ConstantPoolCompactorTest.class.getClassLoader());
+            this.clazz = clazz;
+        }
+
+        @Override
+        protected Class<?> findClass(final String name) throws ClassNotFoundException {
+            if (!CLASS_NAME.equals(name)) throw new ClassNotFoundException(name);
+            return defineClass(name, clazz, 0, clazz.length);
+        }
+    }
+
+}
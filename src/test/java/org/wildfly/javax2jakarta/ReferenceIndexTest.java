@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Builds, updates and queries reference index of class files, archives and nested archives.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class ReferenceIndexTest {
+
+    private static final String CLASS_NAME = ReferenceIndexTest.class.getName().replace('.', '/');
+    private static final String HOLDER_CLASS_NAME = Holder.class.getName().replace('.', '/');
+    private static final String REFERENCED_CLASS_NAME = "java.util.concurrent.atomic.LongAdder";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File sources;
+    private File jar;
+    private File war;
+    private File classFile;
+    private File indexFile;
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private PrintStream systemErr;
+
+    @Before
+    public void createArtifacts() throws IOException {
+        systemErr = System.err;
+        System.setErr(new PrintStream(err, true));
+        sources = folder.newFolder("sources");
+        jar = new File(sources, "lib.jar");
+        war = new File(sources, "app.war");
+        classFile = new File(sources, "Holder.class");
+        indexFile = new File(folder.getRoot(), "references.idx");
+        writeArchive(jar, CLASS_NAME, HOLDER_CLASS_NAME);
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war))) {
+            zos.putNextEntry(new ZipEntry("WEB-INF/lib/nested.jar"));
+            final ByteArrayOutputStream nested = new ByteArrayOutputStream();
+            try (ZipOutputStream nestedZos = new ZipOutputStream(nested)) {
+                nestedZos.putNextEntry(new ZipEntry(HOLDER_CLASS_NAME + ".class"));
+                nestedZos.write(readClass(HOLDER_CLASS_NAME));
+            }
+            zos.write(nested.toByteArray());
+        }
+        try (FileOutputStream fos = new FileOutputStream(classFile)) {
+            fos.write(readClass(HOLDER_CLASS_NAME));
+        }
+    }
+
+    @After
+    public void restoreErr() {
+        System.setErr(systemErr);
+    }
+
+    @Test
+    public void buildsAndQueriesIndex() throws IOException {
+        assertSummary("Indexed 3 of 3 artifacts, 0 up to date, 0 removed, 4 classes referencing ", update(sources));
+        final String holders = line(classFile, HOLDER_CLASS_NAME) + line(war, "WEB-INF/lib/nested.jar!/" + HOLDER_CLASS_NAME)
+                + line(jar, HOLDER_CLASS_NAME);
+        assertEquals(holders, query(REFERENCED_CLASS_NAME));
+        assertEquals(holders, query("java/util/concurrent/atomic/LongAdder"));
+        assertEquals(holders, query("java.util.concurrent"));
+        assertEquals(holders, query("java.util.concurrent.atomic.*"));
+        assertEquals("", query("java.util.concurrent.atomic.LongAdd"));
+        // outer class references its nested class, nested classes reference their outer class
+        assertEquals(line(classFile, HOLDER_CLASS_NAME) + line(war, "WEB-INF/lib/nested.jar!/" + HOLDER_CLASS_NAME)
+                + line(jar, CLASS_NAME) + line(jar, HOLDER_CLASS_NAME), query(ReferenceIndexTest.class.getName()));
+    }
+
+    @Test
+    public void updatesTouchedAndRemovedArtifacts() throws IOException {
+        update(sources);
+        writeArchive(jar, CLASS_NAME);
+        assertTrue(jar.setLastModified(jar.lastModified() + 10_000));
+        assertTrue(war.delete());
+        assertSummary("Indexed 1 of 2 artifacts, 1 up to date, 1 removed, 2 classes referencing ", update(sources));
+        assertEquals(line(classFile, HOLDER_CLASS_NAME), query(REFERENCED_CLASS_NAME));
+        assertEquals(line(classFile, HOLDER_CLASS_NAME) + line(jar, CLASS_NAME), query(ReferenceIndexTest.class.getName()));
+        assertSummary("Indexed 0 of 2 artifacts, 2 up to date, 0 removed, 2 classes referencing ", update(sources));
+    }
+
+    @Test
+    public void rejectsTruncatedIndex() throws IOException {
+        final byte[] index = indexClassFile();
+        for (int length = 0; length < index.length; length++) {
+            writeIndex(Arrays.copyOf(index, length));
+            assertThrows(IOException.class, () -> query(REFERENCED_CLASS_NAME));
+            err.reset();
+            assertSummary("Indexed 1 of 1 artifacts, 0 up to date, 0 removed, 1 classes referencing ", update(classFile));
+            assertTrue(err.toString().startsWith("Rebuilding reference index " + indexFile));
+            assertEquals(line(classFile, HOLDER_CLASS_NAME), query(REFERENCED_CLASS_NAME));
+        }
+    }
+
+    /**
+     * Corrupted index must either be rejected with {@link IOException} or queried without failure.
+     * Update must always succeed, rebuilding the index if necessary.
+     */
+    @Test
+    public void validatesCorruptedIndex() throws IOException {
+        final byte[] index = indexClassFile();
+        final ByteBuffer buffer = ByteBuffer.wrap(index);
+        int original;
+        for (int i = 0; i + 4 <= index.length; i++) {
+            original = buffer.getInt(i);
+            for (int value : new int[] {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, original + 1, original - 1}) {
+                if (value == original) continue;
+                buffer.putInt(i, value);
+                writeIndex(index);
+                try {
+                    query(REFERENCED_CLASS_NAME);
+                } catch (final IOException expected) {
+                    // rejected
+                } catch (final RuntimeException | Error e) {
+                    throw new AssertionError("Querying index with " + value + " at " + i + " failed", e);
+                }
+                try {
+                    update(classFile);
+                    query(REFERENCED_CLASS_NAME);
+                } catch (final IOException | RuntimeException | Error e) {
+                    throw new AssertionError("Updating index with " + value + " at " + i + " failed", e);
+                }
+            }
+            buffer.putInt(i, original);
+        }
+    }
+
+    private byte[] indexClassFile() throws IOException {
+        update(classFile);
+        return Files.readAllBytes(indexFile.toPath());
+    }
+
+    private void writeIndex(final byte[] index) throws IOException {
+        Files.write(indexFile.toPath(), index);
+    }
+
+    private String update(final File source) throws IOException {
+        return ReferenceIndex.update(indexFile, Collections.singletonList(source), 2);
+    }
+
+    private String query(final String name) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PrintStream ps = new PrintStream(out, true, "UTF-8")) {
+            ReferenceIndex.query(indexFile, name, ps);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readClass(final String className) throws IOException {
+        try (InputStream is = ReferenceIndexTest.class.getResourceAsStream("/" + className + ".class")) {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            for (int count; (count = is.read(buffer)) != -1; ) {
+                baos.write(buffer, 0, count);
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    private static void writeArchive(final File file, final String... classNames) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            for (String className : classNames) {
+                zos.putNextEntry(new ZipEntry(className + ".class"));
+                zos.write(readClass(className));
+            }
+        }
+    }
+
+    private static String line(final File artifact, final String className) {
+        return artifact.getAbsolutePath() + '\t' + className + System.lineSeparator();
+    }
+
+    private static void assertSummary(final String expectedPrefix, final String summary) {
+        assertTrue(summary, summary.startsWith(expectedPrefix));
+    }
+
+    /**
+     * The only class referencing {@link java.util.concurrent.atomic.LongAdder}.
+     */
+    static final class Holder {
+        java.util.concurrent.atomic.LongAdder counter;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+/**
+ * Loads transformer snapshots and their corrupted variants. Snapshot must either be rejected with {@link IOException}
+ * or the loaded transformer must not fail, however the snapshot was corrupted.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class TransformerSnapshotTest {
+
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int[] CORRUPTED_VALUES = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE};
+
+    @Test
+    public void loadsEquivalentTransformer() throws IOException {
+        for (boolean overlapping : new boolean[] {false, true}) {
+            final Transformer t = newTransformer(overlapping);
+            final Transformer loaded = TransformerSnapshot.read(ByteBuffer.wrap(snapshot(t)), false, false);
+            assertArrayEquals(t.getMappingDigest(), loaded.getMappingDigest());
+            final byte[] clazz = sampleClass();
+            final byte[] transformed = t.transform(clazz);
+            assertNotSame(clazz, transformed);
+            assertArrayEquals(transformed, loaded.transform(clazz));
+        }
+    }
+
+    @Test
+    public void rejectsChangedBytes() throws IOException {
+        final byte[] snapshot = snapshot(newTransformer(true));
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i]++;
+            assertRejected(snapshot, snapshot.length);
+            snapshot[i]--;
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedSnapshot() throws IOException {
+        final byte[] snapshot = snapshot(newTransformer(true));
+        for (int length = 0; length < snapshot.length; length++) {
+            final byte[] truncated = Arrays.copyOf(snapshot, length);
+            if (length >= CHECKSUM_SIZE) updateChecksum(truncated);
+            assertRejected(truncated, length);
+        }
+    }
+
+    @Test
+    public void rejectsUnsupportedVersion() throws IOException {
+        final byte[] snapshot = snapshot(newTransformer(false));
+        ByteBuffer.wrap(snapshot).putInt(4, 2);
+        updateChecksum(snapshot);
+        assertEquals("Unsupported transformer snapshot version 2",
+                assertThrows(IOException.class, () -> TransformerSnapshot.read(ByteBuffer.wrap(snapshot), false, false)).getMessage());
+    }
+
+    /**
+     * Overwrites every integer with values likely to break lengths, indices and offsets and fixes the checksum.
+     */
+    @Test
+    public void validatesCorruptedContent() throws IOException {
+        final byte[] clazz = sampleClass();
+        for (boolean overlapping : new boolean[] {false, true}) {
+            final byte[] snapshot = snapshot(newTransformer(overlapping));
+            final ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+            int original;
+            for (int i = 0; i + 4 <= snapshot.length - CHECKSUM_SIZE; i++) {
+                original = buffer.getInt(i);
+                for (int value : CORRUPTED_VALUES) {
+                    if (value == original) continue;
+                    assertSafe(snapshot, i, value, clazz);
+                }
+                assertSafe(snapshot, i, original + 1, clazz);
+                assertSafe(snapshot, i, original - 1, clazz);
+                buffer.putInt(i, original);
+            }
+        }
+    }
+
+    private static void assertSafe(final byte[] snapshot, final int position, final int value, final byte[] clazz) {
+        ByteBuffer.wrap(snapshot).putInt(position, value);
+        updateChecksum(snapshot);
+        final Transformer t;
+        try {
+            t = TransformerSnapshot.read(ByteBuffer.wrap(snapshot), false, false);
+        } catch (final IOException expected) {
+            return;
+        } catch (final RuntimeException | Error e) {
+            throw new AssertionError("Loading snapshot with " + value + " at " + position + " failed", e);
+        }
+        try {
+            t.transform(clazz);
+        } catch (final RuntimeException | Error e) {
+            throw new AssertionError("Transformer loaded from snapshot with " + value + " at " + position + " failed", e);
+        }
+    }
+
+    private static void assertRejected(final byte[] snapshot, final int length) {
+        try {
+            TransformerSnapshot.read(ByteBuffer.wrap(snapshot, 0, length), false, false);
+            fail("Corrupted snapshot of length " + length + " was loaded");
+        } catch (final IOException expected) {
+            // expected
+        }
+    }
+
+    private static Transformer newTransformer(final boolean overlapping) {
+        final Transformer.Builder builder = Transformer.newInstance()
+                .addMapping("java/util/", "jakarta/util/")
+                .addMapping("org/junit/", "org/test/");
+        if (overlapping) {
+            builder.addMapping("java/", "jakarta/").addMapping("java/lang/String", "jakarta/lang/Text").enableLongestMatch();
+        }
+        return builder.build();
+    }
+
+    private static byte[] snapshot(final Transformer t) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        t.writeSnapshot(baos);
+        return baos.toByteArray();
+    }
+
+    private static void updateChecksum(final byte[] snapshot) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(snapshot, 0, snapshot.length - CHECKSUM_SIZE);
+        ByteBuffer.wrap(snapshot).putInt(snapshot.length - CHECKSUM_SIZE, (int) checksum.getValue());
+    }
+
+    private static byte[] sampleClass() throws IOException {
+        try (InputStream is = TransformerSnapshotTest.class.getResourceAsStream(TransformerSnapshotTest.class.getSimpleName() + ".class")) {
+            return IOUtils.readAll(is);
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads archives written by {@link ZipOutputStream} with {@link ZipReader}.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class ZipReaderTest {
+
+    private static final String COMPRESSED_ENTRY = "javax/Compressed.txt";
+    private static final String STORED_ENTRY = "javax/Stored.bin";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsArchiveWithDataDescriptors() throws IOException {
+        final Map<String, byte[]> entries = entries();
+        final byte[] archive = archive(entries, "archive comment");
+        final File file = folder.newFile("archive.zip");
+        Files.write(file.toPath(), archive);
+        assertEntries(entries, ZipReader.open(file));
+        assertEntries(entries, ZipReader.open(archive));
+    }
+
+    @Test
+    public void readsRawData() throws IOException {
+        final Map<String, byte[]> entries = entries();
+        try (ZipReader reader = ZipReader.open(archive(entries, null))) {
+            for (ZipReader.Entry entry : reader.getEntries()) {
+                final ByteBuffer raw = reader.getRawData(entry);
+                assertEquals(entry.compressedSize, raw.remaining());
+                if (entry.method == ZipEntry.STORED) assertEquals(ByteBuffer.wrap(entries.get(entry.name)), raw);
+            }
+            assertTrue(reader.getEntries().get(1).compressedSize < reader.getEntries().get(1).size);
+        }
+    }
+
+    @Test
+    public void readsZip64Archive() throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 0xFFFF + 10; i++) entries.put("entry" + i, new byte[] {(byte) i});
+        final File file = folder.newFile("zip64.zip");
+        Files.write(file.toPath(), archive(entries, null));
+        assertEntries(entries, ZipReader.open(file));
+    }
+
+    @Test
+    public void rejectsInvalidArchives() throws IOException {
+        final byte[] archive = archive(entries(), null);
+        assertThrows(ZipException.class, () -> ZipReader.open(new byte[100]));
+        assertThrows(ZipException.class, () -> ZipReader.open(Arrays.copyOf(archive, archive.length - 10)));
+        assertThrows(IOException.class, () -> ZipReader.open(Arrays.copyOfRange(archive, archive.length / 2, archive.length)));
+        // corrupt compressed data
+        try (ZipReader reader = ZipReader.open(archive)) {
+            final ZipReader.Entry entry = reader.getEntries().get(1);
+            final ByteBuffer raw = reader.getRawData(entry);
+            Arrays.fill(archive, raw.arrayOffset(), raw.arrayOffset() + raw.remaining(), (byte) 0xFF);
+            assertThrows(ZipException.class, () -> reader.read(entry));
+        }
+    }
+
+    private static Map<String, byte[]> entries() {
+        final Map<String, byte[]> retVal = new LinkedHashMap<>();
+        final byte[] random = new byte[5000];
+        new Random(0).nextBytes(random);
+        retVal.put("javax/", new byte[0]);
+        retVal.put(COMPRESSED_ENTRY, ZipWriterTest.repeat("javax.servlet.http.HttpServlet\n", 1000));
+        retVal.put(STORED_ENTRY, random);
+        retVal.put("ünïcödé.txt", "text".getBytes(StandardCharsets.UTF_8));
+        return retVal;
+    }
+
+    /**
+     * Writes archive with {@link ZipOutputStream}. Deflated entries have their sizes in data descriptors.
+     */
+    private static byte[] archive(final Map<String, byte[]> entries, final String comment) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            if (comment != null) zos.setComment(comment);
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                final ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                if (STORED_ENTRY.equals(entry.getKey())) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(entry.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(zipEntry);
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private static void assertEntries(final Map<String, byte[]> expected, final ZipReader reader) throws IOException {
+        try {
+            final List<ZipReader.Entry> entries = reader.getEntries();
+            assertEquals(expected.size(), entries.size());
+            int i = 0;
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                assertEquals(entry.getKey(), entries.get(i).name);
+                assertEquals(entry.getKey().endsWith("/"), entries.get(i).isDirectory());
+                assertEquals(entry.getValue().length, entries.get(i).size);
+                assertArrayEquals(entry.getKey(), entry.getValue(), reader.read(entries.get(i++)));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+}
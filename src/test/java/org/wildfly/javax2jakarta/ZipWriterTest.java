@@ -0,0 +1,269 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.javax2jakarta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads archives written by {@link ZipWriter} with {@link ZipFile}, {@link ZipInputStream} and {@link ZipReader}.
+ *
+ * @author <a href="mailto:ropalka@redhat.com">Richard Opálka</a>
+ */
+public final class ZipWriterTest {
+
+    private static final int DOS_TIME = ZipWriter.toDosTime(System.currentTimeMillis());
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int END_SIZE = 22;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesCompressedEntries() throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        final byte[] random = new byte[10000];
+        new Random(0).nextBytes(random);
+        entries.put("META-INF/", new byte[0]);
+        entries.put("compressible.txt", repeat("javax.servlet.http.HttpServlet\n", 1000));
+        entries.put("incompressible.bin", random);
+        entries.put("ünïcödé.txt", "text".getBytes(StandardCharsets.UTF_8));
+        final File archive = folder.newFile("entries.zip");
+        try (ZipWriter writer = new ZipWriter(new FileOutputStream(archive))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) writer.write(ZipWriter.compress(entry.getKey(), entry.getValue(), DOS_TIME));
+        }
+        assertEntries(entries, archive);
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("compressible.txt").getMethod());
+            assertEquals(ZipEntry.STORED, zip.getEntry("incompressible.bin").getMethod());
+        }
+    }
+
+    /**
+     * Streamed entries have unknown size when their local headers are written, so their sizes follow their data
+     * in data descriptors. Streaming readers like {@link ZipInputStream} depend on them.
+     */
+    @Test
+    public void writesStreamedEntries() throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        final byte[] random = new byte[300000];
+        new Random(0).nextBytes(random);
+        entries.put("buffered.txt", repeat("javax.servlet.http.HttpServlet\n", 100));
+        entries.put("streamed.txt", repeat("javax.servlet.http.HttpServlet\n", 100000));
+        entries.put("streamed.bin", random);
+        entries.put("empty.txt", new byte[0]);
+        entries.put("last.txt", "last".getBytes(StandardCharsets.UTF_8));
+        final File archive = folder.newFile("streamed.zip");
+        try (ZipWriter writer = new ZipWriter(new FileOutputStream(archive))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                if (entry.getKey().startsWith("buffered") || entry.getKey().startsWith("last")) {
+                    writer.write(ZipWriter.compress(entry.getKey(), entry.getValue(), DOS_TIME));
+                    continue;
+                }
+                final OutputStream os = writer.newEntry(entry.getKey(), DOS_TIME);
+                // written in chunks of various sizes
+                for (int off = 0, len = 1; off < entry.getValue().length; off += len, len = Math.min(len * 3, 100000)) {
+                    os.write(entry.getValue(), off, Math.min(len, entry.getValue().length - off));
+                }
+                os.close();
+                os.close();
+                assertThrows(IOException.class, () -> os.write(1));
+            }
+        }
+        assertEntries(entries, archive);
+        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(archive))) {
+            ZipEntry zipEntry;
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zipEntry = zis.getNextEntry();
+                assertEquals(entry.getKey(), zipEntry.getName());
+                assertArrayEquals(entry.getKey(), entry.getValue(), IOUtils.readAll(zis));
+            }
+            assertNull(zis.getNextEntry());
+        }
+    }
+
+    @Test
+    public void writesZip64RecordsForManyEntries() throws IOException {
+        final int count = ZIP64_MAGIC_COUNT + 10;
+        final File archive = folder.newFile("many.zip");
+        try (ZipWriter writer = new ZipWriter(new FileOutputStream(archive))) {
+            for (int i = 0; i < count; i++) writer.write(new ZipWriter.Entry("entry" + i, ZipEntry.STORED, 0, 0, ByteBuffer.allocate(0), DOS_TIME));
+        }
+        final ByteBuffer end = endRecord(archive);
+        assertEquals(ZIP64_MAGIC_COUNT, end.getShort(10) & 0xFFFF);
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(count, zip.size());
+        }
+        try (ZipReader reader = ZipReader.open(archive)) {
+            final List<ZipReader.Entry> entries = reader.getEntries();
+            assertEquals(count, entries.size());
+            assertEquals("entry" + (count - 1), entries.get(count - 1).name);
+        }
+    }
+
+    /**
+     * Two entries of maximal size move following entries and central directory beyond 4 GB. Zero data are skipped
+     * while written so the archive file is sparse. Too slow and disk hungry for default run, enabled by
+     * <code>-Djavax2jakarta.largeTests=true</code>.
+     */
+    @Test
+    public void writesZip64RecordsForLargeOffsets() throws IOException {
+        assumeTrue(Boolean.getBoolean("javax2jakarta.largeTests"));
+        final File zeros = folder.newFile("zeros.bin");
+        final File archive = folder.newFile("large.zip");
+        final byte[] small = "small entry beyond 4 GB".getBytes(StandardCharsets.UTF_8);
+        try (FileChannel zerosChannel = FileChannel.open(zeros.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            zerosChannel.write(ByteBuffer.allocate(1), Integer.MAX_VALUE - 1);
+            final ByteBuffer data = zerosChannel.map(FileChannel.MapMode.READ_ONLY, 0, Integer.MAX_VALUE);
+            final CRC32 crc = new CRC32();
+            crc.update(data.duplicate());
+            try (ZipWriter writer = new ZipWriter(new SparseOutputStream(archive))) {
+                writer.write(new ZipWriter.Entry("zeros1.bin", ZipEntry.STORED, (int) crc.getValue(), data.remaining(), data, DOS_TIME));
+                writer.write(new ZipWriter.Entry("zeros2.bin", ZipEntry.STORED, (int) crc.getValue(), data.remaining(), data, DOS_TIME));
+                writer.write(ZipWriter.compress("small.txt", small, DOS_TIME));
+            }
+        }
+        assertTrue(archive.length() > ZIP64_MAGIC);
+        assertEquals(ZIP64_MAGIC, endRecord(archive).getInt(16) & ZIP64_MAGIC);
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(3, zip.size());
+            assertEquals(Integer.MAX_VALUE, zip.getEntry("zeros2.bin").getSize());
+            try (InputStream is = zip.getInputStream(zip.getEntry("small.txt"))) {
+                assertArrayEquals(small, IOUtils.readAll(is));
+            }
+        }
+        try (ZipReader reader = ZipReader.open(archive)) {
+            final List<ZipReader.Entry> entries = reader.getEntries();
+            assertEquals(3, entries.size());
+            // the entry crosses memory mapped regions
+            assertEquals(Integer.MAX_VALUE, reader.getRawData(entries.get(1)).remaining());
+            assertArrayEquals(small, reader.read(entries.get(2)));
+        }
+    }
+
+    static void assertEntries(final Map<String, byte[]> expected, final File archive) throws IOException {
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(expected.size(), zip.size());
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                final ZipEntry zipEntry = entries.nextElement();
+                assertEquals(entry.getKey(), zipEntry.getName());
+                try (InputStream is = zip.getInputStream(zipEntry)) {
+                    assertArrayEquals(entry.getKey(), entry.getValue(), IOUtils.readAll(is));
+                }
+            }
+        }
+        try (ZipReader reader = ZipReader.open(archive)) {
+            final List<ZipReader.Entry> entries = reader.getEntries();
+            assertEquals(expected.size(), entries.size());
+            int i = 0;
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                assertEquals(entry.getKey(), entries.get(i).name);
+                assertArrayEquals(entry.getKey(), entry.getValue(), reader.read(entries.get(i++)));
+            }
+        }
+    }
+
+    static byte[] repeat(final String s, final int count) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < count; i++) baos.write(bytes, 0, bytes.length);
+        return baos.toByteArray();
+    }
+
+    private static ByteBuffer endRecord(final File archive) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer retVal = ByteBuffer.allocate(END_SIZE).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+            channel.read(retVal, channel.size() - END_SIZE);
+            return retVal;
+        }
+    }
+
+    /**
+     * Writes file skipping over zero data.
+     */
+    private static final class SparseOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private long position;
+
+        private SparseOutputStream(final File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            boolean zeros = true;
+            for (int i = off; zeros && i < off + len; i++) zeros = b[i] == 0;
+            if (!zeros) {
+                final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) position += channel.write(buffer, position);
+            } else {
+                position += len;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (channel.size() < position) channel.write(ByteBuffer.allocate(1), position - 1);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+}